@@ -0,0 +1,98 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures finding the {@link org.apache.hadoop.io.MapFile}s in many
+ * directories when planning a job, like hourly job outputs with a few parts
+ * each.
+ *
+ * @author Jens Rabe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GetMapFileStatusesBenchmark {
+
+	/** The number of directories */
+	@Param({ "10", "100", "1000" })
+	public int directories;
+
+	/** The number of threads listing the directories */
+	@Param({ "1", "8" })
+	public int threads;
+
+	private Configuration _conf;
+	private Path _root;
+	private List<FileStatus> _statuses;
+
+	/**
+	 * Generate the directories with two small MapFiles each.
+	 *
+	 * @throws IOException
+	 *             if generating fails.
+	 */
+	@Setup
+	public void setup() throws IOException {
+		_conf = new Configuration();
+		_conf.setInt(FileInputFormat.LIST_STATUS_NUM_THREADS, threads);
+		_root = new Path(Files.createTempDirectory("mapfile-statuses").toUri());
+		final FileSystem fs = _root.getFileSystem(_conf);
+		final MapFileGenerator generator = new MapFileGenerator().records(100);
+		/* The MapFiles, as the file input format lists them */
+		_statuses = new ArrayList<>();
+		for (int i = 0; i < directories; i++) {
+			final Path directory = new Path(_root, String.format("hour-%05d",
+					i));
+			generator.generate(_conf, directory, 2);
+			_statuses.addAll(Arrays.asList(fs.listStatus(directory)));
+		}
+	}
+
+	/**
+	 * Delete the directories.
+	 *
+	 * @throws IOException
+	 *             if deleting fails.
+	 */
+	@TearDown
+	public void teardown() throws IOException {
+		_root.getFileSystem(_conf).delete(_root, true);
+	}
+
+	/**
+	 * @return The data files of the MapFiles.
+	 * @throws IOException
+	 *             if listing fails.
+	 */
+	@Benchmark
+	public List<FileStatus> getMapFileStatuses() throws IOException {
+		return MapFileInputFormat.getMapFileStatuses(_statuses, _conf);
+	}
+}
@@ -0,0 +1,231 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.apache.hadoop.io.MapFile.Writer.compression;
+import static org.apache.hadoop.io.MapFile.Writer.keyClass;
+import static org.apache.hadoop.io.MapFile.Writer.valueClass;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Generates {@link MapFile}s with synthetic records for the benchmarks. The
+ * keys are the numbers from 0 on, in the chosen key type, and the values are
+ * random bytes of a fixed size. Several {@link MapFile}s can be generated as
+ * the parts of a job output with consecutive key ranges.
+ *
+ * It can also be run on its own, with the arguments
+ * <code>directory parts records keyType valueSize compression indexInterval</code>.
+ *
+ * @author Jens Rabe
+ */
+public class MapFileGenerator {
+
+	/**
+	 * The types of the keys.
+	 */
+	public enum KeyType {
+		/** {@link IntWritable} keys */
+		INT(IntWritable.class),
+		/** {@link LongWritable} keys */
+		LONG(LongWritable.class),
+		/** {@link Text} keys, the numbers padded with zeros */
+		TEXT(Text.class);
+
+		private final Class<? extends WritableComparable<?>> _keyClass;
+
+		private KeyType(final Class<? extends WritableComparable<?>> keyClass) {
+			_keyClass = keyClass;
+		}
+
+		/**
+		 * @return The key class.
+		 */
+		public Class<? extends WritableComparable<?>> getKeyClass() {
+			return _keyClass;
+		}
+
+		/**
+		 * @param i
+		 *            The number of the record.
+		 * @return The key of the record.
+		 */
+		public WritableComparable<?> key(final long i) {
+			switch (this) {
+			case INT:
+				return new IntWritable((int) i);
+			case LONG:
+				return new LongWritable(i);
+			default:
+				return new Text(String.format("%019d", i));
+			}
+		}
+	}
+
+	private KeyType _keyType = KeyType.INT;
+	private int _valueSize = 100;
+	private long _records = 100000;
+	private CompressionType _compression = CompressionType.NONE;
+	private Class<? extends CompressionCodec> _codec = DefaultCodec.class;
+	private int _indexInterval = 128;
+
+	/**
+	 * @param keyType
+	 *            The type of the keys. Default is {@link KeyType#INT}.
+	 * @return This generator.
+	 */
+	public MapFileGenerator keyType(final KeyType keyType) {
+		_keyType = keyType;
+		return this;
+	}
+
+	/**
+	 * @param valueSize
+	 *            The size of each value in bytes. Default is 100.
+	 * @return This generator.
+	 */
+	public MapFileGenerator valueSize(final int valueSize) {
+		_valueSize = valueSize;
+		return this;
+	}
+
+	/**
+	 * @param records
+	 *            The number of records in all {@link MapFile}s. Default is
+	 *            100000.
+	 * @return This generator.
+	 */
+	public MapFileGenerator records(final long records) {
+		_records = records;
+		return this;
+	}
+
+	/**
+	 * @param compression
+	 *            The compression type. Default is none.
+	 * @param codec
+	 *            The codec for record or block compression. Default is the
+	 *            {@link DefaultCodec}.
+	 * @return This generator.
+	 */
+	public MapFileGenerator compression(final CompressionType compression,
+			final Class<? extends CompressionCodec> codec) {
+		_compression = compression;
+		_codec = codec;
+		return this;
+	}
+
+	/**
+	 * @param indexInterval
+	 *            The number of records per index entry. Default is 128.
+	 * @return This generator.
+	 */
+	public MapFileGenerator indexInterval(final int indexInterval) {
+		_indexInterval = indexInterval;
+		return this;
+	}
+
+	/**
+	 * @return The key type.
+	 */
+	public KeyType getKeyType() {
+		return _keyType;
+	}
+
+	/**
+	 * @return The number of records in all {@link MapFile}s.
+	 */
+	public long getRecords() {
+		return _records;
+	}
+
+	/**
+	 * Generate the {@link MapFile}s, like the output of a job with a total
+	 * order.
+	 *
+	 * @param conf
+	 *            The {@link Configuration} to use.
+	 * @param directory
+	 *            The directory to put the {@link MapFile}s into.
+	 * @param parts
+	 *            The number of {@link MapFile}s. The records are split evenly
+	 *            among them, in key order.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public void generate(final Configuration conf, final Path directory,
+			final int parts) throws IOException {
+		final Configuration writerConf = new Configuration(conf);
+		MapFile.Writer.setIndexInterval(writerConf, _indexInterval);
+		final CompressionCodec codec = ReflectionUtils.newInstance(_codec,
+				writerConf);
+		/* The same values every time, so runs are comparable. */
+		final Random random = new Random(4711);
+		final BytesWritable value = new BytesWritable();
+		final byte[] bytes = new byte[_valueSize];
+		for (int part = 0; part < parts; part++) {
+			final long from = _records * part / parts;
+			final long to = _records * (part + 1) / parts;
+			try (MapFile.Writer w = new MapFile.Writer(writerConf, new Path(
+					directory, String.format("part-r-%05d", part)),
+					keyClass(_keyType.getKeyClass()),
+					valueClass(BytesWritable.class), compression(_compression,
+							codec))) {
+				for (long i = from; i < to; i++) {
+					random.nextBytes(bytes);
+					value.set(bytes, 0, bytes.length);
+					w.append(_keyType.key(i), value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generate {@link MapFile}s from the command line.
+	 *
+	 * @param args
+	 *            <code>directory parts records keyType valueSize compression indexInterval</code>
+	 *            , where all but the directory are optional.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: MapFileGenerator directory [parts "
+					+ "[records [INT|LONG|TEXT [valueSize "
+					+ "[NONE|RECORD|BLOCK [indexInterval]]]]]]");
+			System.exit(1);
+		}
+		final MapFileGenerator generator = new MapFileGenerator();
+		final int parts = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+		if (args.length > 2) {
+			generator.records(Long.parseLong(args[2]));
+		}
+		if (args.length > 3) {
+			generator.keyType(KeyType.valueOf(args[3]));
+		}
+		if (args.length > 4) {
+			generator.valueSize(Integer.parseInt(args[4]));
+		}
+		if (args.length > 5) {
+			generator.compression(CompressionType.valueOf(args[5]),
+					DefaultCodec.class);
+		}
+		if (args.length > 6) {
+			generator.indexInterval(Integer.parseInt(args[6]));
+		}
+		generator.generate(new Configuration(), new Path(args[0]), parts);
+	}
+}
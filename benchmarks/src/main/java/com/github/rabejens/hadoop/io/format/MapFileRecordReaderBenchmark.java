@@ -0,0 +1,149 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.apache.hadoop.io.MapFile.DATA_FILE_NAME;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.rabejens.hadoop.io.format.MapFileGenerator.KeyType;
+
+/**
+ * Measures initializing a {@link MapFileRecordReader}, and scanning key ranges
+ * of different sizes in the middle of a {@link org.apache.hadoop.io.MapFile}.
+ *
+ * The generated {@link org.apache.hadoop.io.MapFile}s are kept in the
+ * temporary directory, so later runs reuse them.
+ *
+ * @author Jens Rabe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MapFileRecordReaderBenchmark {
+
+	private static final long RECORDS = 500000;
+
+	/** The type of the keys */
+	@Param({ "INT", "TEXT" })
+	public KeyType keyType;
+
+	/** The compression of the MapFile */
+	@Param({ "NONE", "BLOCK" })
+	public CompressionType compression;
+
+	/** The share of the records in the key range */
+	@Param({ "0.001", "0.01", "0.1", "1" })
+	public double selectivity;
+
+	/** Whether the keys are compared in their serialized form */
+	@Param({ "false", "true" })
+	public boolean raw;
+
+	private TaskAttemptContext _context;
+	private FileSplit _split;
+	private KeyRanges<?> _ranges;
+
+	/**
+	 * Generate the MapFile unless it exists, and set up the key range.
+	 *
+	 * @throws IOException
+	 *             if generating fails.
+	 */
+	@Setup
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setup() throws IOException {
+		final Configuration conf = new Configuration();
+		final Path directory = new Path(new File(
+				System.getProperty("java.io.tmpdir"), String.format(
+						"mapfile-benchmark-%s-%s-%d", keyType, compression,
+						RECORDS)).toURI());
+		final FileSystem fs = directory.getFileSystem(conf);
+		final Path mapFile = new Path(directory, "part-r-00000");
+		if (!fs.exists(new Path(mapFile, DATA_FILE_NAME))) {
+			fs.delete(directory, true);
+			new MapFileGenerator().keyType(keyType).records(RECORDS)
+					.compression(compression, DefaultCodec.class)
+					.generate(conf, directory, 1);
+		}
+		final Path dataFile = new Path(mapFile, DATA_FILE_NAME);
+		_split = new FileSplit(dataFile, 0, fs.getFileStatus(dataFile)
+				.getLen(), null);
+		_context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+		/* A range in the middle of the keys */
+		final long size = (long) (RECORDS * selectivity);
+		final long from = (RECORDS - size) / 2;
+		_ranges = KeyRanges.of((WritableComparable) keyType.key(from),
+				(WritableComparable) keyType.key(from + size));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private MapFileRecordReader<?, ?> newReader() {
+		return new MapFileRecordReader(_ranges, raw);
+	}
+
+	/**
+	 * Open the MapFile, check if it is relevant and seek to the range.
+	 *
+	 * @return The first key.
+	 * @throws IOException
+	 *             if reading fails.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	@Benchmark
+	public Object initialize() throws IOException, InterruptedException {
+		try (MapFileRecordReader<?, ?> reader = newReader()) {
+			reader.initialize(_split, _context);
+			return reader.nextKeyValue() ? reader.getCurrentKey() : null;
+		}
+	}
+
+	/**
+	 * Read all records in the range.
+	 *
+	 * @param blackhole
+	 *            Consumes the records.
+	 * @throws IOException
+	 *             if reading fails.
+	 * @throws InterruptedException
+	 *             if interrupted.
+	 */
+	@Benchmark
+	public void scan(final Blackhole blackhole) throws IOException,
+			InterruptedException {
+		try (MapFileRecordReader<?, ?> reader = newReader()) {
+			reader.initialize(_split, _context);
+			while (reader.nextKeyValue()) {
+				blackhole.consume(reader.getCurrentKey());
+				blackhole.consume(reader.getCurrentValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReaderWrapper;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+
+/**
+ * A {@link CombineFileInputFormat} for {@link MapFile}s. It packs the data
+ * files of many {@link MapFile}s into fewer splits, grouped by node and rack
+ * like the {@link CombineFileInputFormat} does, which is useful for the many
+ * small {@link MapFile}s written by jobs with many reducers. Each part of a
+ * split is read like a split of the {@link MapFileInputFormat}, so the key
+ * ranges set there apply here, too.
+ *
+ * If a key range is set, the index of each {@link MapFile} is used to drop the
+ * parts of the combined splits which cannot contain any key of the range, and
+ * splits without any part left. As this happens after combining, consider
+ * setting a maximum split size for narrow key ranges, so the remaining parts
+ * are spread over enough splits.
+ *
+ * @param K
+ *            Data type of the keys. Must be a sub type of
+ *            {@link WritableComparable}.
+ * @param V
+ *            Data type of the values. Can be any sub type of {@link Writable}.
+ */
+public class CombineMapFileInputFormat<K extends WritableComparable<K>, V extends Writable>
+		extends CombineFileInputFormat<K, V> {
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public RecordReader<K, V> createRecordReader(final InputSplit split,
+			final TaskAttemptContext context) throws IOException {
+		/*
+		 * The raw wrapper class is OK because the wrapper reads the keys and
+		 * values of the job, whatever they are.
+		 */
+		return new CombineFileRecordReader<K, V>((CombineFileSplit) split,
+				context, (Class) MapFileRecordReaderWrapper.class);
+	}
+
+	@Override
+	public List<InputSplit> getSplits(final JobContext job) throws IOException {
+		final List<InputSplit> splits = super.getSplits(job);
+		final Configuration conf = job.getConfiguration();
+		final KeyRanges<K> ranges = MapFileInputFormat.getKeyRanges(conf);
+		if (ranges.isUnbounded()) {
+			/* Without a key range, every part is relevant. */
+			return splits;
+		}
+		return pruneSplits(splits, ranges, conf);
+	}
+
+	/* package-private for tests */
+	static <K extends WritableComparable<K>> List<InputSplit> pruneSplits(
+			final List<InputSplit> splits, final KeyRanges<K> ranges,
+			final Configuration conf) throws IOException {
+		final List<InputSplit> relevant = new ArrayList<>();
+		/*
+		 * The parts of a data file may be spread over several splits, so keep
+		 * the indexes of all MapFiles seen so far.
+		 */
+		final Map<Path, MapFileIndex<K>> indexes = new HashMap<>();
+		for (final InputSplit split : splits) {
+			final CombineFileSplit combined = (CombineFileSplit) split;
+			final List<Path> paths = new ArrayList<>();
+			final List<Long> starts = new ArrayList<>();
+			final List<Long> lengths = new ArrayList<>();
+			for (int i = 0; i < combined.getNumPaths(); i++) {
+				final Path path = combined.getPath(i);
+				MapFileIndex<K> index = indexes.get(path);
+				if (index == null) {
+					index = MapFileInputFormat.readIndex(path, conf);
+					indexes.put(path, index);
+				}
+				final long start = combined.getOffset(i);
+				final long length = combined.getLength(i);
+				if (index.mayContain(start, start + length, ranges)) {
+					paths.add(path);
+					starts.add(start);
+					lengths.add(length);
+				}
+			}
+			if (paths.size() == combined.getNumPaths()) {
+				relevant.add(split);
+			} else if (!paths.isEmpty()) {
+				relevant.add(new CombineFileSplit(paths.toArray(new Path[paths
+						.size()]), toArray(starts), toArray(lengths), combined
+						.getLocations()));
+			}
+		}
+		return relevant;
+	}
+
+	private static long[] toArray(final List<Long> list) {
+		final long[] array = new long[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	@Override
+	protected List<FileStatus> listStatus(final JobContext job)
+			throws IOException {
+		final Configuration conf = job.getConfiguration();
+		return MapFileInputFormat.applyCheckpoint(MapFileInputFormat
+				.getMapFileStatuses(super.listStatus(job), conf), conf);
+	}
+
+	/*
+	 * Reads one part of a combined split with the record reader of the
+	 * MapFileInputFormat.
+	 */
+	private static class MapFileRecordReaderWrapper<K extends WritableComparable<K>, V extends Writable>
+			extends CombineFileRecordReaderWrapper<K, V> {
+
+		/* Called by the CombineFileRecordReader via reflection */
+		public MapFileRecordReaderWrapper(final CombineFileSplit split,
+				final TaskAttemptContext context, final Integer idx)
+				throws IOException, InterruptedException {
+			super(new MapFileInputFormat<K, V>(), split, context, idx);
+		}
+	}
+}
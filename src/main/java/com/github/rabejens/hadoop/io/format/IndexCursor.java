@@ -0,0 +1,93 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Walks through the entries of the index of a {@link MapFile}, e.g. to merge
+ * the indexes of several {@link MapFile}s in key order. Each entry stands for
+ * the bytes of the data file up to the next entry.
+ *
+ * @param K
+ *            Data type of the keys.
+ */
+final class IndexCursor<K extends WritableComparable<K>> {
+
+	private final MapFileIndex<K> _index;
+	private final long _length;
+	private int _entry = -1;
+	private K _key;
+	/* The key of the next entry, once asked for */
+	private K _nextKey;
+
+	/**
+	 * @param index
+	 *            The index to walk through.
+	 * @param length
+	 *            The length of the data file.
+	 */
+	IndexCursor(final MapFileIndex<K> index, final long length) {
+		_index = index;
+		_length = length;
+	}
+
+	/**
+	 * Go to the next entry.
+	 *
+	 * @return <code>true</code> if there is one.
+	 * @throws IOException
+	 *             if its key cannot be deserialized.
+	 */
+	boolean advance() throws IOException {
+		if (++_entry >= _index.size()) {
+			return false;
+		}
+		_key = (_nextKey != null) ? _nextKey : _index.getKey(_entry);
+		_nextKey = null;
+		return true;
+	}
+
+	/**
+	 * @return The key of the current entry.
+	 */
+	K getKey() {
+		return _key;
+	}
+
+	/**
+	 * @return The key of the next entry, or <code>null</code> if the current
+	 *         entry is the last one.
+	 * @throws IOException
+	 *             if its key cannot be deserialized.
+	 */
+	K getNextKey() throws IOException {
+		if ((_nextKey == null) && (_entry + 1 < _index.size())) {
+			_nextKey = _index.getKey(_entry + 1);
+		}
+		return _nextKey;
+	}
+
+	/**
+	 * @return The bytes up to the next index entry.
+	 */
+	long bytes() {
+		final long next = (_entry + 1 < _index.size()) ? _index
+				.getPosition(_entry + 1) : _length;
+		return next - _index.getPosition(_entry);
+	}
+
+	/**
+	 * @return A {@link Comparator} ordering cursors by their current keys.
+	 */
+	static <K extends WritableComparable<K>> Comparator<IndexCursor<K>> byKey() {
+		return new Comparator<IndexCursor<K>>() {
+			@Override
+			public int compare(final IndexCursor<K> o1, final IndexCursor<K> o2) {
+				return o1._key.compareTo(o2._key);
+			}
+		};
+	}
+}
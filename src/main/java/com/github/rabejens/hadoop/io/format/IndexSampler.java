@@ -0,0 +1,162 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.apache.hadoop.io.SequenceFile.Writer.file;
+import static org.apache.hadoop.io.SequenceFile.Writer.keyClass;
+import static org.apache.hadoop.io.SequenceFile.Writer.valueClass;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+
+/**
+ * Writes the partition file of a {@link TotalOrderPartitioner} from the
+ * indexes of the {@link MapFile}s of a job, instead of sampling records like
+ * the {@link InputSampler} does. The data files are never read.
+ *
+ * The index entries of all {@link MapFile}s are merged in key order, each
+ * weighted with the bytes up to the next entry, and the partitions are cut
+ * where they have about the same weight. Only the entries which may hold keys
+ * in the key ranges of the {@link MapFileInputFormat} count, and only index
+ * keys in the key ranges become boundaries. They are sorted by their natural
+ * order, so the job must sort the keys that way,
+ * and its map output key class must be the key class of the {@link MapFile}s.
+ *
+ * @author Jens Rabe
+ */
+public final class IndexSampler {
+
+	private IndexSampler() {
+	}
+
+	/**
+	 * Write the partition file for the input of a job, with a partition for
+	 * each reduce task.
+	 *
+	 * @param job
+	 *            The job. The input paths, key ranges and partition file are
+	 *            taken from its {@link Configuration}.
+	 * @throws IOException
+	 *             if the indexes cannot be read, there are fewer distinct
+	 *             index keys than partitions, or the partition file cannot be
+	 *             written.
+	 */
+	public static <K extends WritableComparable<K>> void writePartitionFile(
+			final Job job) throws IOException {
+		final Configuration conf = job.getConfiguration();
+		final int partitions = job.getNumReduceTasks();
+		final KeyRanges<K> ranges = MapFileInputFormat.getKeyRanges(conf);
+		final List<FileStatus> dataFiles = new MapFileInputFormat<K, Writable>()
+				.listStatus(job);
+		final List<MapFileIndex<K>> indexes = new ArrayList<>(
+				dataFiles.size());
+		for (final FileStatus dataFile : dataFiles) {
+			indexes.add(MapFileInputFormat.<K> readIndex(dataFile.getPath(),
+					conf));
+		}
+		/* First, sum up the weight of all entries in the ranges. */
+		long total = 0;
+		for (final IndexCursor<K> cursor : cursors(dataFiles, indexes)) {
+			do {
+				if (isRelevant(cursor, ranges)) {
+					total += cursor.bytes();
+				}
+			} while (cursor.advance());
+		}
+		/*
+		 * Then go through the entries in key order, and start the next
+		 * partition whenever the ones before it have their share.
+		 */
+		final List<K> boundaries = new ArrayList<>(Math.max(0,
+				partitions - 1));
+		final List<IndexCursor<K>> cursors = cursors(dataFiles, indexes);
+		final PriorityQueue<IndexCursor<K>> queue = new PriorityQueue<>(
+				Math.max(1, cursors.size()), IndexCursor.<K> byKey());
+		queue.addAll(cursors);
+		K last = null;
+		long size = 0;
+		while (!queue.isEmpty() && (boundaries.size() < partitions - 1)) {
+			final IndexCursor<K> cursor = queue.poll();
+			final K key = cursor.getKey();
+			final long share = total * (boundaries.size() + 1) / partitions;
+			/*
+			 * Keys outside the ranges would only make empty partitions, so
+			 * they are never boundaries.
+			 */
+			if ((size >= share) && (size > 0)
+					&& ((last == null) || (key.compareTo(last) > 0))
+					&& ranges.contains(key)) {
+				boundaries.add(key);
+				last = key;
+			}
+			if (isRelevant(cursor, ranges)) {
+				size += cursor.bytes();
+			}
+			if (cursor.advance()) {
+				queue.add(cursor);
+			}
+		}
+		if (boundaries.size() < partitions - 1) {
+			throw new IOException(String.format(
+					"The indexes only allow %d partitions instead of %d",
+					boundaries.size() + 1, partitions));
+		}
+		write(boundaries, job);
+	}
+
+	/*
+	 * Whether the keys from the current entry up to the next one may be in
+	 * the ranges. An entry below a range may still cross into it.
+	 */
+	private static <K extends WritableComparable<K>> boolean isRelevant(
+			final IndexCursor<K> cursor, final KeyRanges<K> ranges)
+			throws IOException {
+		return ranges.intersects(cursor.getKey(), cursor.getNextKey());
+	}
+
+	/* A cursor at the first entry of each non-empty index */
+	private static <K extends WritableComparable<K>> List<IndexCursor<K>> cursors(
+			final List<FileStatus> dataFiles,
+			final List<MapFileIndex<K>> indexes) throws IOException {
+		final List<IndexCursor<K>> cursors = new ArrayList<>(indexes.size());
+		for (int i = 0; i < indexes.size(); i++) {
+			final IndexCursor<K> cursor = new IndexCursor<>(indexes.get(i),
+					dataFiles.get(i).getLen());
+			if (cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+		return cursors;
+	}
+
+	private static <K extends WritableComparable<K>> void write(
+			final List<K> boundaries, final Job job) throws IOException {
+		final Configuration conf = job.getConfiguration();
+		final Path partitionFile = new Path(
+				TotalOrderPartitioner.getPartitionFile(conf));
+		final FileSystem fs = partitionFile.getFileSystem(conf);
+		if (fs.exists(partitionFile)) {
+			fs.delete(partitionFile, false);
+		}
+		try (SequenceFile.Writer w = SequenceFile.createWriter(conf,
+				file(partitionFile), keyClass(job.getMapOutputKeyClass()),
+				valueClass(NullWritable.class))) {
+			for (final K boundary : boundaries) {
+				w.append(boundary, NullWritable.get());
+			}
+		}
+	}
+}
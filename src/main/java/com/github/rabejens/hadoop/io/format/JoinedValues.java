@@ -0,0 +1,100 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * The values of one key in each input of a {@link MapFileJoinInputFormat}. In
+ * an outer join, the inputs which do not contain the key have no value.
+ *
+ * @author Jens Rabe
+ */
+public class JoinedValues implements Writable {
+
+	private Writable[] _values;
+
+	/**
+	 * Create empty joined values, e.g. for deserialization.
+	 */
+	public JoinedValues() {
+		this(0);
+	}
+
+	JoinedValues(final int size) {
+		_values = new Writable[size];
+	}
+
+	/**
+	 * @return The number of inputs.
+	 */
+	public int size() {
+		return _values.length;
+	}
+
+	/**
+	 * @param i
+	 *            The number of the input, in the order the inputs were given.
+	 * @return <code>true</code> if the input has a value for the key.
+	 */
+	public boolean has(final int i) {
+		return _values[i] != null;
+	}
+
+	/**
+	 * @param i
+	 *            The number of the input, in the order the inputs were given.
+	 * @return The value of the input, or <code>null</code> if it has none.
+	 */
+	public Writable get(final int i) {
+		return _values[i];
+	}
+
+	void set(final int i, final Writable value) {
+		_values[i] = value;
+	}
+
+	@Override
+	public void write(final DataOutput out) throws IOException {
+		out.writeInt(_values.length);
+		for (final Writable value : _values) {
+			out.writeBoolean(value != null);
+			if (value != null) {
+				/*
+				 * To circumvent Java's type erasure, we must write the class
+				 * name too.
+				 */
+				out.writeUTF(value.getClass().getName());
+				value.write(out);
+			}
+		}
+	}
+
+	@Override
+	public void readFields(final DataInput in) throws IOException {
+		_values = new Writable[in.readInt()];
+		try {
+			for (int i = 0; i < _values.length; i++) {
+				if (in.readBoolean()) {
+					_values[i] = (Writable) Class.forName(in.readUTF())
+							.newInstance();
+					_values[i].readFields(in);
+				}
+			}
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("Cannot find the requested value class: "
+					+ e.getMessage(), e);
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new IOException("Cannot instantiate value: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(_values);
+	}
+}
@@ -0,0 +1,106 @@
+package com.github.rabejens.hadoop.io.format;
+
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * A range of keys for the {@link MapFileInputFormat}. A range is either a
+ * half-open interval [from, to), or a single key. Missing bounds are
+ * represented by <code>null</code>. The keys are not copied, so they must not
+ * be modified after creating the range.
+ *
+ * @param K
+ *            Data type of the keys. Must be a sub type of
+ *            {@link WritableComparable}.
+ */
+public final class KeyRange<K extends WritableComparable<K>> {
+
+	private final K _from;
+	private final K _to;
+	private final boolean _toInclusive;
+
+	/**
+	 * Create a range [from, to).
+	 *
+	 * @param from
+	 *            The minimum key (inclusive). <code>null</code> for no lower
+	 *            bound.
+	 * @param to
+	 *            The maximum key (exclusive). <code>null</code> for no upper
+	 *            bound.
+	 */
+	public KeyRange(final K from, final K to) {
+		this(from, to, false);
+	}
+
+	KeyRange(final K from, final K to, final boolean toInclusive) {
+		_from = from;
+		_to = to;
+		_toInclusive = toInclusive;
+	}
+
+	/**
+	 * Create a range consisting of a single key.
+	 *
+	 * @param key
+	 *            The key. Must not be <code>null</code>.
+	 * @return The range.
+	 */
+	public static <K extends WritableComparable<K>> KeyRange<K> point(
+			final K key) {
+		if (key == null) {
+			throw new IllegalArgumentException("A point key must not be null");
+		}
+		return new KeyRange<>(key, key, true);
+	}
+
+	/**
+	 * @return The minimum key (inclusive), or <code>null</code> if there is no
+	 *         lower bound.
+	 */
+	public K getFrom() {
+		return _from;
+	}
+
+	/**
+	 * @return The maximum key, or <code>null</code> if there is no upper
+	 *         bound. It is exclusive unless {@link #isToInclusive()}.
+	 */
+	public K getTo() {
+		return _to;
+	}
+
+	/**
+	 * @return <code>true</code> if the maximum key belongs to the range. This
+	 *         is the case for single keys.
+	 */
+	public boolean isToInclusive() {
+		return _toInclusive;
+	}
+
+	/**
+	 * @return <code>true</code> if this range consists of a single key.
+	 */
+	public boolean isPoint() {
+		return _toInclusive && (_from != null) && (_from.compareTo(_to) == 0);
+	}
+
+	/**
+	 * @return <code>true</code> if this range does not contain any key.
+	 */
+	boolean isEmpty() {
+		if ((_from == null) || (_to == null)) {
+			return false;
+		}
+		final int cmp = _from.compareTo(_to);
+		return (cmp > 0) || ((cmp == 0) && !_toInclusive);
+	}
+
+	@Override
+	public String toString() {
+		if (isPoint()) {
+			return "{" + _from + "}";
+		}
+		return "[" + ((_from == null) ? "" : _from) + ", "
+				+ ((_to == null) ? "" : _to) + (_toInclusive ? "]" : ")");
+	}
+}
@@ -0,0 +1,433 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * A sorted list of disjoint {@link KeyRange}s. This is what the
+ * {@link MapFileInputFormat} and the {@link MapFileRecordReader} use to decide
+ * which splits and records are relevant.
+ *
+ * @param K
+ *            Data type of the keys.
+ */
+final class KeyRanges<K extends WritableComparable<K>> {
+
+	private final List<KeyRange<K>> _ranges;
+	/* Serialized bounds, only created when needed */
+	private byte[][] _rawFrom;
+	private byte[][] _rawTo;
+
+	private KeyRanges(final List<KeyRange<K>> ranges) {
+		_ranges = ranges;
+	}
+
+	/**
+	 * Create the key ranges for a single range [minKey, maxKey).
+	 *
+	 * @param minKey
+	 *            The minimum key (inclusive). <code>null</code> for no lower
+	 *            bound.
+	 * @param maxKey
+	 *            The maximum key (exclusive). <code>null</code> for no upper
+	 *            bound.
+	 * @return The key ranges.
+	 */
+	static <K extends WritableComparable<K>> KeyRanges<K> of(final K minKey,
+			final K maxKey) {
+		return normalize(
+				Collections.singletonList(new KeyRange<>(minKey, maxKey)),
+				null, null);
+	}
+
+	/**
+	 * Sort and merge arbitrary key ranges, and restrict them to [minKey,
+	 * maxKey).
+	 *
+	 * @param ranges
+	 *            The ranges.
+	 * @param minKey
+	 *            The minimum key (inclusive). <code>null</code> for no lower
+	 *            bound.
+	 * @param maxKey
+	 *            The maximum key (exclusive). <code>null</code> for no upper
+	 *            bound.
+	 * @return The normalized key ranges.
+	 */
+	static <K extends WritableComparable<K>> KeyRanges<K> normalize(
+			final Collection<KeyRange<K>> ranges, final K minKey,
+			final K maxKey) {
+		final List<KeyRange<K>> sorted = new ArrayList<>();
+		for (final KeyRange<K> range : ranges) {
+			final KeyRange<K> clipped = clip(range, minKey, maxKey);
+			if (!clipped.isEmpty()) {
+				sorted.add(clipped);
+			}
+		}
+		Collections.sort(sorted, new Comparator<KeyRange<K>>() {
+			@Override
+			public int compare(final KeyRange<K> o1, final KeyRange<K> o2) {
+				return compareLower(o1.getFrom(), o2.getFrom());
+			}
+		});
+		/* Merge overlapping and adjacent ranges */
+		final List<KeyRange<K>> merged = new ArrayList<>();
+		for (final KeyRange<K> range : sorted) {
+			final int last = merged.size() - 1;
+			if ((last < 0) || !touches(merged.get(last), range)) {
+				merged.add(range);
+				continue;
+			}
+			final KeyRange<K> previous = merged.get(last);
+			final int cmp = compareUpper(previous.getTo(), range.getTo());
+			if (cmp < 0) {
+				merged.set(last, new KeyRange<>(previous.getFrom(), range
+						.getTo(), range.isToInclusive()));
+			} else if ((cmp == 0) && range.isToInclusive()) {
+				merged.set(last, new KeyRange<>(previous.getFrom(), previous
+						.getTo(), true));
+			}
+		}
+		return new KeyRanges<>(merged);
+	}
+
+	private static <K extends WritableComparable<K>> KeyRange<K> clip(
+			final KeyRange<K> range, final K minKey, final K maxKey) {
+		K from = range.getFrom();
+		K to = range.getTo();
+		boolean toInclusive = range.isToInclusive();
+		if (compareLower(from, minKey) < 0) {
+			from = minKey;
+		}
+		if ((maxKey != null)
+				&& ((to == null) || (maxKey.compareTo(to) < 0) || ((maxKey
+						.compareTo(to) == 0) && toInclusive))) {
+			to = maxKey;
+			toInclusive = false;
+		}
+		return new KeyRange<>(from, to, toInclusive);
+	}
+
+	/* Check if the second range starts within or right after the first one */
+	private static <K extends WritableComparable<K>> boolean touches(
+			final KeyRange<K> first, final KeyRange<K> second) {
+		return (first.getTo() == null) || (second.getFrom() == null)
+				|| (second.getFrom().compareTo(first.getTo()) <= 0);
+	}
+
+	/* Compare lower bounds, where null is the smallest */
+	private static <K extends WritableComparable<K>> int compareLower(
+			final K a, final K b) {
+		if (a == null) {
+			return (b == null) ? 0 : -1;
+		}
+		return (b == null) ? 1 : a.compareTo(b);
+	}
+
+	/* Compare upper bounds, where null is the largest */
+	private static <K extends WritableComparable<K>> int compareUpper(
+			final K a, final K b) {
+		if (a == null) {
+			return (b == null) ? 0 : 1;
+		}
+		return (b == null) ? -1 : a.compareTo(b);
+	}
+
+	/**
+	 * Restrict these ranges to [minKey, maxKey).
+	 *
+	 * @param minKey
+	 *            The minimum key (inclusive). <code>null</code> for no lower
+	 *            bound.
+	 * @param maxKey
+	 *            The maximum key (exclusive). <code>null</code> for no upper
+	 *            bound.
+	 * @return The restricted key ranges.
+	 */
+	KeyRanges<K> restrict(final K minKey, final K maxKey) {
+		if ((minKey == null) && (maxKey == null)) {
+			return this;
+		}
+		return normalize(_ranges, minKey, maxKey);
+	}
+
+	/**
+	 * @return The number of ranges.
+	 */
+	int size() {
+		return _ranges.size();
+	}
+
+	/**
+	 * @param i
+	 *            The number of the range.
+	 * @return The range.
+	 */
+	KeyRange<K> get(final int i) {
+		return _ranges.get(i);
+	}
+
+	/**
+	 * @return <code>true</code> if every key is in the ranges.
+	 */
+	boolean isUnbounded() {
+		return (_ranges.size() == 1) && (_ranges.get(0).getFrom() == null)
+				&& (_ranges.get(0).getTo() == null);
+	}
+
+	/**
+	 * @return The smallest key in the ranges, or <code>null</code> if there is
+	 *         no lower bound or there are no ranges.
+	 */
+	K getMinKey() {
+		return _ranges.isEmpty() ? null : _ranges.get(0).getFrom();
+	}
+
+	/**
+	 * Check if a key is above the upper bound of a range.
+	 *
+	 * @param key
+	 *            The key.
+	 * @param i
+	 *            The number of the range.
+	 * @return <code>true</code> if the key and all following keys are outside
+	 *         the range.
+	 */
+	boolean isAbove(final K key, final int i) {
+		final KeyRange<K> range = _ranges.get(i);
+		if (range.getTo() == null) {
+			return false;
+		}
+		final int cmp = key.compareTo(range.getTo());
+		return (cmp > 0) || ((cmp == 0) && !range.isToInclusive());
+	}
+
+	/**
+	 * Check if a key is below the lower bound of a range.
+	 *
+	 * @param key
+	 *            The key.
+	 * @param i
+	 *            The number of the range.
+	 * @return <code>true</code> if the key is before the range.
+	 */
+	boolean isBelow(final K key, final int i) {
+		final K from = _ranges.get(i).getFrom();
+		return (from != null) && (key.compareTo(from) < 0);
+	}
+
+	/**
+	 * Check if a key is in the ranges.
+	 *
+	 * @param key
+	 *            The key.
+	 * @return <code>true</code> if the key is in one of the ranges.
+	 */
+	boolean contains(final K key) {
+		final int i = firstNotBelow(key);
+		return (i < _ranges.size()) && !isBelow(key, i);
+	}
+
+	/**
+	 * Check if any range intersects the keys from lower to upper.
+	 *
+	 * @param lower
+	 *            The smallest key (inclusive). <code>null</code> for no lower
+	 *            bound.
+	 * @param upper
+	 *            The largest key (inclusive). <code>null</code> for no upper
+	 *            bound.
+	 * @return <code>true</code> if a range intersects the keys.
+	 */
+	boolean intersects(final K lower, final K upper) {
+		final int i = (lower == null) ? 0 : firstNotBelow(lower);
+		if (i >= _ranges.size()) {
+			return false;
+		}
+		final K from = _ranges.get(i).getFrom();
+		return (from == null) || (upper == null) || (from.compareTo(upper) <= 0);
+	}
+
+	/* Find the first range whose upper bound is not below the key. */
+	private int firstNotBelow(final K key) {
+		int low = 0;
+		int high = _ranges.size();
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (isAbove(key, mid)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @param i
+	 *            The number of the range.
+	 * @return The serialized lower bound of the range, or <code>null</code> if
+	 *         there is none.
+	 * @throws IOException
+	 *             if serialization fails.
+	 */
+	byte[] getRawFrom(final int i) throws IOException {
+		serializeBounds();
+		return _rawFrom[i];
+	}
+
+	/**
+	 * @param i
+	 *            The number of the range.
+	 * @return The serialized upper bound of the range, or <code>null</code> if
+	 *         there is none.
+	 * @throws IOException
+	 *             if serialization fails.
+	 */
+	byte[] getRawTo(final int i) throws IOException {
+		serializeBounds();
+		return _rawTo[i];
+	}
+
+	private void serializeBounds() throws IOException {
+		if (_rawFrom != null) {
+			return;
+		}
+		final int size = _ranges.size();
+		final byte[][] rawFrom = new byte[size][];
+		final byte[][] rawTo = new byte[size][];
+		final DataOutputBuffer buffer = new DataOutputBuffer();
+		for (int i = 0; i < size; i++) {
+			rawFrom[i] = serialize(_ranges.get(i).getFrom(), buffer);
+			rawTo[i] = serialize(_ranges.get(i).getTo(), buffer);
+		}
+		_rawFrom = rawFrom;
+		_rawTo = rawTo;
+	}
+
+	private static byte[] serialize(final Writable key,
+			final DataOutputBuffer buffer) throws IOException {
+		if (key == null) {
+			return null;
+		}
+		buffer.reset();
+		key.write(buffer);
+		return Arrays.copyOf(buffer.getData(), buffer.getLength());
+	}
+
+	/* Flags for the serialized form */
+	private static final int HAS_FROM = 1;
+	private static final int HAS_TO = 2;
+	private static final int TO_INCLUSIVE = 4;
+	private static final int POINT = 8;
+
+	/**
+	 * Serialize the ranges.
+	 *
+	 * @param out
+	 *            Where to write the ranges to.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	void write(final DataOutput out) throws IOException {
+		/*
+		 * To circumvent Java's type erasure, we must write the class name too.
+		 */
+		String className = "";
+		for (final KeyRange<K> range : _ranges) {
+			final K key = (range.getFrom() != null) ? range.getFrom() : range
+					.getTo();
+			if (key != null) {
+				className = key.getClass().getName();
+				break;
+			}
+		}
+		out.writeUTF(className);
+		out.writeInt(_ranges.size());
+		for (final KeyRange<K> range : _ranges) {
+			if (range.isPoint()) {
+				out.writeByte(POINT);
+				range.getFrom().write(out);
+				continue;
+			}
+			out.writeByte(((range.getFrom() != null) ? HAS_FROM : 0)
+					| ((range.getTo() != null) ? HAS_TO : 0)
+					| (range.isToInclusive() ? TO_INCLUSIVE : 0));
+			if (range.getFrom() != null) {
+				range.getFrom().write(out);
+			}
+			if (range.getTo() != null) {
+				range.getTo().write(out);
+			}
+		}
+	}
+
+	/**
+	 * Deserialize ranges written by {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 *            Where to read the ranges from.
+	 * @return The ranges.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	static <K extends WritableComparable<K>> KeyRanges<K> read(
+			final DataInput in) throws IOException {
+		final String className = in.readUTF();
+		final int size = in.readInt();
+		final List<KeyRange<K>> ranges = new ArrayList<>(size);
+		try {
+			/*
+			 * Unchecked cast is OK because a later ClassCastException is fine
+			 * in case of an incorrect key type.
+			 */
+			@SuppressWarnings("unchecked")
+			final Class<K> clazz = (size == 0) || className.isEmpty() ? null
+					: (Class<K>) Class.forName(className);
+			for (int i = 0; i < size; i++) {
+				final int flags = in.readByte();
+				if ((flags & POINT) != 0) {
+					final K key = clazz.newInstance();
+					key.readFields(in);
+					ranges.add(new KeyRange<>(key, key, true));
+					continue;
+				}
+				K from = null;
+				K to = null;
+				if ((flags & HAS_FROM) != 0) {
+					from = clazz.newInstance();
+					from.readFields(in);
+				}
+				if ((flags & HAS_TO) != 0) {
+					to = clazz.newInstance();
+					to.readFields(in);
+				}
+				ranges.add(new KeyRange<>(from, to,
+						(flags & TO_INCLUSIVE) != 0));
+			}
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("Cannot find the requested key class: "
+					+ e.getMessage(), e);
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new IOException("Cannot instantiate key: " + e.getMessage(),
+					e);
+		}
+		return new KeyRanges<>(ranges);
+	}
+
+	@Override
+	public String toString() {
+		return _ranges.toString();
+	}
+}
@@ -0,0 +1,150 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+
+/**
+ * The {@link MapFile}s processed by earlier jobs, with the length and
+ * modification time of their data files. A {@link MapFile} counts as
+ * processed as long as both are unchanged.
+ *
+ * A job only writes a pending checkpoint when it is planned, which replaces
+ * the checkpoint when the job has succeeded, see
+ * {@link MapFileInputFormat#commitCheckpoint(Configuration)}. So the
+ * {@link MapFile}s of failed jobs are processed again.
+ */
+final class MapFileCheckpoint {
+
+	/* Marks the file format, increment when it changes */
+	private static final int MAGIC = 0x4d464301;
+
+	/* The length and modification time of each data file */
+	private final Map<String, long[]> _dataFiles = new HashMap<>();
+
+	private MapFileCheckpoint() {
+	}
+
+	/**
+	 * Read a checkpoint.
+	 *
+	 * @param file
+	 *            The checkpoint file.
+	 * @param conf
+	 *            The {@link Configuration} to use.
+	 * @return The checkpoint, empty if the file does not exist yet.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	static MapFileCheckpoint read(final Path file, final Configuration conf)
+			throws IOException {
+		final MapFileCheckpoint checkpoint = new MapFileCheckpoint();
+		final FileSystem fs = file.getFileSystem(conf);
+		if (!fs.exists(file)) {
+			/* The first job */
+			return checkpoint;
+		}
+		try (FSDataInputStream in = fs.open(file)) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a checkpoint");
+			}
+			final int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				checkpoint._dataFiles.put(in.readUTF(), new long[] {
+						in.readLong(), in.readLong() });
+			}
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * @param dataFile
+	 *            The status of the data file of a {@link MapFile}.
+	 * @return <code>true</code> if the {@link MapFile} was processed and has
+	 *         not changed since.
+	 */
+	boolean contains(final FileStatus dataFile) {
+		final long[] processed = _dataFiles.get(dataFile.getPath().toString());
+		return (processed != null) && (processed[0] == dataFile.getLen())
+				&& (processed[1] == dataFile.getModificationTime());
+	}
+
+	/**
+	 * @param dataFiles
+	 *            The statuses of the data files of the {@link MapFile}s to add.
+	 */
+	void addAll(final List<FileStatus> dataFiles) {
+		for (final FileStatus dataFile : dataFiles) {
+			_dataFiles.put(dataFile.getPath().toString(), new long[] {
+					dataFile.getLen(), dataFile.getModificationTime() });
+		}
+	}
+
+	/**
+	 * Write this checkpoint. It is written to a temporary file first, which is
+	 * then renamed, so readers never see a partial checkpoint.
+	 *
+	 * @param file
+	 *            The file to write to.
+	 * @param conf
+	 *            The {@link Configuration} to use.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	void write(final Path file, final Configuration conf) throws IOException {
+		final FileSystem fs = file.getFileSystem(conf);
+		final Path tmp = new Path(file.getParent(), file.getName() + ".tmp");
+		try (FSDataOutputStream out = fs.create(tmp, true)) {
+			out.writeInt(MAGIC);
+			out.writeInt(_dataFiles.size());
+			for (final Map.Entry<String, long[]> dataFile : _dataFiles
+					.entrySet()) {
+				out.writeUTF(dataFile.getKey());
+				out.writeLong(dataFile.getValue()[0]);
+				out.writeLong(dataFile.getValue()[1]);
+			}
+		}
+		replace(tmp, file, fs);
+	}
+
+	/**
+	 * Replace a file with another one.
+	 *
+	 * @param src
+	 *            The new file.
+	 * @param dst
+	 *            The file to replace.
+	 * @param fs
+	 *            The {@link FileSystem} of both.
+	 * @throws IOException
+	 *             if renaming fails.
+	 */
+	static void replace(final Path src, final Path dst, final FileSystem fs)
+			throws IOException {
+		/* Renaming does not overwrite on all file systems. */
+		if (fs.exists(dst)) {
+			fs.delete(dst, false);
+		}
+		if (!fs.rename(src, dst)) {
+			throw new IOException("Cannot rename " + src + " to " + dst);
+		}
+	}
+
+	/**
+	 * @param file
+	 *            The checkpoint file.
+	 * @return The pending checkpoint file of the current job.
+	 */
+	static Path pending(final Path file) {
+		return new Path(file.getParent(), file.getName() + ".pending");
+	}
+}
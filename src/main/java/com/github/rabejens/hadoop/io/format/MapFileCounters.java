@@ -0,0 +1,64 @@
+package com.github.rabejens.hadoop.io.format;
+
+/**
+ * The counters of the jobs reading {@link org.apache.hadoop.io.MapFile}s with
+ * the input formats of this package. They tell how effective the pruning and
+ * seeking is, to tune the index intervals and split sizes. The splits dropped
+ * before the job is submitted are logged by the {@link MapFileInputFormat}.
+ *
+ * @author Jens Rabe
+ */
+public enum MapFileCounters {
+
+	/**
+	 * The splits the record readers found to be irrelevant when initialized.
+	 * These could not be dropped before the job was submitted.
+	 */
+	SPLITS_PRUNED,
+
+	/**
+	 * The records whose keys were read.
+	 */
+	RECORDS_READ,
+
+	/**
+	 * The records read whose keys were not in the key ranges.
+	 */
+	RECORDS_SKIPPED,
+
+	/**
+	 * The bytes of the data files the record readers read through.
+	 */
+	BYTES_READ,
+
+	/**
+	 * The serialized bytes of the keys and values returned, to compare with
+	 * {@link #BYTES_READ}. In the keys-only mode, only the keys are counted.
+	 * The sizes are only known when keys are compared raw or blocks are
+	 * decompressed in parallel, or otherwise for files which are not
+	 * compressed outside the keys-only mode.
+	 */
+	BYTES_EMITTED,
+
+	/**
+	 * The bytes of the data files skipped by seeking to the key ranges.
+	 */
+	BYTES_SEEKED_OVER,
+
+	/**
+	 * The time spent checking whether splits are relevant, in milliseconds.
+	 * This includes reading the indexes and bloom filters.
+	 */
+	PROBE_MILLIS,
+
+	/**
+	 * The time spent seeking to the key ranges, in milliseconds.
+	 */
+	SEEK_MILLIS,
+
+	/**
+	 * The time the record readers waited for data read ahead, in milliseconds.
+	 * See {@link MapFileInputFormat#setReadAhead(int, int, org.apache.hadoop.conf.Configuration)}.
+	 */
+	READ_AHEAD_STALL_MILLIS
+}
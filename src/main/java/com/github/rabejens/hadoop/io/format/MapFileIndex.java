@@ -0,0 +1,531 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.apache.hadoop.io.MapFile.INDEX_FILE_NAME;
+import static org.apache.hadoop.io.SequenceFile.SYNC_INTERVAL;
+import static org.apache.hadoop.io.SequenceFile.Reader.file;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.Reader;
+import org.apache.hadoop.io.SequenceFile.ValueBytes;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The index of a {@link MapFile}, read into memory. The index maps every n-th
+ * key of the data file to the byte position of its record, which allows to
+ * derive bounds for the keys contained in a byte range of the data file without
+ * reading the data file itself.
+ *
+ * The keys are kept in their serialized form, packed into a single byte array,
+ * and are searched with the {@link RawComparator} of the key class. This keeps
+ * large indexes from filling the heap with key objects. For very large
+ * indexes, only every n-th entry can be kept, see
+ * {@link MapFileInputFormat#setIndexSkip(int, Configuration)}. This object is
+ * not thread-safe.
+ *
+ * @param K
+ *            Data type of the keys.
+ */
+final class MapFileIndex<K extends WritableComparable<K>> {
+
+	private final Class<?> _keyClass;
+	private final RawComparator<K> _comparator;
+	/* The serialized keys, one after the other */
+	private final byte[] _keyData;
+	/* Offset of each key in the key data, and the end of the last key */
+	private final int[] _keyOffsets;
+	private final long[] _positions;
+	/* The last key of the data file, null if unknown */
+	private final K _lastKey;
+
+	/* Buffers to serialize keys to search for and to deserialize keys */
+	private final DataOutputBuffer _searchKey = new DataOutputBuffer();
+	private final DataInputBuffer _keyIn = new DataInputBuffer();
+
+	@SuppressWarnings("unchecked")
+	private MapFileIndex(final Class<?> keyClass, final byte[] keyData,
+			final int[] keyOffsets, final long[] positions, final K lastKey,
+			final Configuration conf) {
+		_keyClass = keyClass;
+		/*
+		 * Unchecked casts are OK because ClassCastExceptions resulting from
+		 * wrong key type in a file are desired.
+		 */
+		_comparator = (RawComparator<K>) WritableComparator.get(
+				(Class<? extends WritableComparable<?>>) keyClass, conf);
+		_keyData = keyData;
+		_keyOffsets = keyOffsets;
+		_positions = positions;
+		_lastKey = lastKey;
+	}
+
+	/**
+	 * Read the index of a {@link MapFile}. The keys are not deserialized.
+	 *
+	 * @param mapFile
+	 *            The {@link MapFile} directory.
+	 * @param conf
+	 *            The {@link Configuration} to use.
+	 * @return The index.
+	 * @throws IOException
+	 *             if the index cannot be read.
+	 */
+	static <K extends WritableComparable<K>> MapFileIndex<K> read(
+			final Path mapFile, final Configuration conf) throws IOException {
+		/* Keep the first entry and every skip + 1-th entry after it */
+		final int skip = MapFileInputFormat.getIndexSkip(conf);
+		final DataOutputBuffer keyData = new DataOutputBuffer();
+		int[] keyOffsets = new int[1025];
+		long[] positions = new long[1024];
+		int size = 0;
+		try (Reader r = new Reader(conf, file(new Path(mapFile,
+				INDEX_FILE_NAME)))) {
+			final DataOutputBuffer rawKey = new DataOutputBuffer();
+			final ValueBytes rawPosition = r.createValueBytes();
+			final DataOutputBuffer positionBuffer = new DataOutputBuffer();
+			final DataInputBuffer positionIn = new DataInputBuffer();
+			for (long entry = 0;; entry++) {
+				rawKey.reset();
+				if (r.nextRawKey(rawKey) < 0) {
+					break;
+				}
+				r.nextRawValue(rawPosition);
+				if ((entry % (skip + 1)) != 0) {
+					continue;
+				}
+				if (size == positions.length) {
+					positions = Arrays.copyOf(positions, size * 2);
+					keyOffsets = Arrays.copyOf(keyOffsets, (size * 2) + 1);
+				}
+				/* The positions are LongWritables, so read them as longs. */
+				positionBuffer.reset();
+				rawPosition.writeUncompressedBytes(positionBuffer);
+				positionIn.reset(positionBuffer.getData(),
+						positionBuffer.getLength());
+				keyOffsets[size] = keyData.getLength();
+				keyData.write(rawKey.getData(), 0, rawKey.getLength());
+				positions[size++] = positionIn.readLong();
+			}
+			keyOffsets[size] = keyData.getLength();
+			return new MapFileIndex<>(r.getKeyClass(), Arrays.copyOf(
+					keyData.getData(), keyData.getLength()), Arrays.copyOf(
+					keyOffsets, size + 1), Arrays.copyOf(positions, size),
+					null, conf);
+		}
+	}
+
+	/**
+	 * Find the last key of the data file of a {@link MapFile}. This reads the
+	 * data file from the last index entry on.
+	 *
+	 * @param dataFile
+	 *            The data file of the {@link MapFile}.
+	 * @param conf
+	 *            The {@link Configuration} to use.
+	 * @return A copy of this index which knows the last key of the data file.
+	 * @throws IOException
+	 *             if the data file cannot be read.
+	 */
+	MapFileIndex<K> withLastKey(final Path dataFile, final Configuration conf)
+			throws IOException {
+		try (Reader r = new Reader(conf, file(dataFile))) {
+			K key = newKey();
+			K last = null;
+			if (_positions.length > 0) {
+				r.seek(_positions[_positions.length - 1]);
+			}
+			while (r.next(key)) {
+				final K tmp = (last == null) ? newKey() : last;
+				last = key;
+				key = tmp;
+			}
+			return new MapFileIndex<>(_keyClass, _keyData, _keyOffsets,
+					_positions, last, conf);
+		}
+	}
+
+	/**
+	 * Write this index, including the last key if known.
+	 *
+	 * @param out
+	 *            The output to write to.
+	 * @throws IOException
+	 *             if writing fails.
+	 */
+	void write(final DataOutput out) throws IOException {
+		out.writeUTF(_keyClass.getName());
+		out.writeInt(_positions.length);
+		for (int i = 0; i < _positions.length; i++) {
+			WritableUtils.writeVInt(out, _keyOffsets[i + 1] - _keyOffsets[i]);
+			out.write(_keyData, _keyOffsets[i], _keyOffsets[i + 1]
+					- _keyOffsets[i]);
+			out.writeLong(_positions[i]);
+		}
+		out.writeBoolean(_lastKey != null);
+		if (_lastKey != null) {
+			_lastKey.write(out);
+		}
+	}
+
+	/**
+	 * Read an index written with {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 *            The input to read from.
+	 * @param conf
+	 *            The {@link Configuration} to load the key class with.
+	 * @return The index.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	static <K extends WritableComparable<K>> MapFileIndex<K> read(
+			final DataInput in, final Configuration conf) throws IOException {
+		final Class<?> keyClass;
+		try {
+			keyClass = conf.getClassByName(in.readUTF());
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("Cannot find the key class: "
+					+ e.getMessage(), e);
+		}
+		final int size = in.readInt();
+		final DataOutputBuffer keyData = new DataOutputBuffer();
+		final int[] keyOffsets = new int[size + 1];
+		final long[] positions = new long[size];
+		for (int i = 0; i < size; i++) {
+			keyOffsets[i] = keyData.getLength();
+			keyData.write(in, WritableUtils.readVInt(in));
+			positions[i] = in.readLong();
+		}
+		keyOffsets[size] = keyData.getLength();
+		final MapFileIndex<K> index = new MapFileIndex<>(keyClass,
+				Arrays.copyOf(keyData.getData(), keyData.getLength()),
+				keyOffsets, positions, null, conf);
+		if (!in.readBoolean()) {
+			return index;
+		}
+		final K lastKey = index.newKey();
+		lastKey.readFields(in);
+		return new MapFileIndex<>(keyClass, index._keyData, keyOffsets,
+				positions, lastKey, conf);
+	}
+
+	@SuppressWarnings("unchecked")
+	private K newKey() throws IOException {
+		try {
+			/*
+			 * Unchecked cast is OK because ClassCastExceptions resulting from
+			 * wrong key type in a file are desired.
+			 */
+			return (K) _keyClass.newInstance();
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new IOException("Cannot instantiate key: " + e.getMessage(),
+					e);
+		}
+	}
+
+	/**
+	 * @return The number of entries in this index.
+	 */
+	int size() {
+		return _positions.length;
+	}
+
+	/**
+	 * @param i
+	 *            The number of the index entry.
+	 * @return The key of the index entry, deserialized into a new object.
+	 * @throws IOException
+	 *             if deserialization fails.
+	 */
+	K getKey(final int i) throws IOException {
+		final K key = newKey();
+		_keyIn.reset(_keyData, _keyOffsets[i], _keyOffsets[i + 1]
+				- _keyOffsets[i]);
+		key.readFields(_keyIn);
+		return key;
+	}
+
+	/**
+	 * @param i
+	 *            The number of the index entry.
+	 * @return The byte position of the index entry in the data file.
+	 */
+	long getPosition(final int i) {
+		return _positions[i];
+	}
+
+	/**
+	 * Find the last index entry before a byte position.
+	 *
+	 * @param position
+	 *            The byte position.
+	 * @return The number of the last entry whose position is strictly less
+	 *         than the given one, or -1 if there is none.
+	 */
+	int lastBefore(final long position) {
+		return firstAtOrAfter(position) - 1;
+	}
+
+	/**
+	 * Find the first index entry at or after a byte position.
+	 *
+	 * @param position
+	 *            The byte position.
+	 * @return The number of the first entry whose position is greater than or
+	 *         equal to the given one, or {@link #size()} if there is none.
+	 */
+	int firstAtOrAfter(final long position) {
+		/* Positions are ascending, so do a binary search */
+		int low = 0;
+		int high = _positions.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (_positions[mid] < position) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Find the last index entry with a key less than the given one.
+	 *
+	 * @param key
+	 *            The key to look for.
+	 * @return The number of the last entry whose key is strictly less than the
+	 *         given one, or -1 if there is none.
+	 * @throws IOException
+	 *             if serialization of the key fails.
+	 */
+	int lastLessThan(final K key) throws IOException {
+		return lastBelow(key, false);
+	}
+
+	/**
+	 * Find the last index entry with a key less than or equal to the given one.
+	 *
+	 * @param key
+	 *            The key to look for.
+	 * @return The number of the last entry whose key is less than or equal to
+	 *         the given one, or -1 if there is none.
+	 * @throws IOException
+	 *             if serialization of the key fails.
+	 */
+	int lastAtMost(final K key) throws IOException {
+		return lastBelow(key, true);
+	}
+
+	private int lastBelow(final K key, final boolean inclusive)
+			throws IOException {
+		_searchKey.reset();
+		key.write(_searchKey);
+		/* Keys are ascending, so do a binary search */
+		int low = 0;
+		int high = _positions.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = _comparator.compare(_keyData, _keyOffsets[mid],
+					_keyOffsets[mid + 1] - _keyOffsets[mid],
+					_searchKey.getData(), 0, _searchKey.getLength());
+			if ((cmp < 0) || (inclusive && (cmp == 0))) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low - 1;
+	}
+
+	/**
+	 * Get the byte position at which the records of a key range start.
+	 *
+	 * @param range
+	 *            The key range.
+	 * @return The position of the last index entry before the range, or 0 if
+	 *         there is none.
+	 * @throws IOException
+	 *             if serialization of the bound fails.
+	 */
+	long startOf(final KeyRange<K> range) throws IOException {
+		if (range.getFrom() == null) {
+			return 0;
+		}
+		final int entry = lastLessThan(range.getFrom());
+		return (entry < 0) ? 0 : _positions[entry];
+	}
+
+	/**
+	 * Get the byte position before which all records of a key range start.
+	 *
+	 * @param range
+	 *            The key range.
+	 * @param length
+	 *            The length of the data file.
+	 * @return The position of the index entry after the first entry past the
+	 *         range, or the length of the data file if there is none.
+	 * @throws IOException
+	 *             if serialization of the bound fails.
+	 */
+	long endOf(final KeyRange<K> range, final long length) throws IOException {
+		if (range.getTo() == null) {
+			return length;
+		}
+		final int entry = (range.isToInclusive() ? lastAtMost(range.getTo())
+				: lastLessThan(range.getTo())) + 1;
+		if (entry >= _positions.length) {
+			return length;
+		}
+		/*
+		 * In block compressed files, the block of the first entry past the
+		 * range may still contain keys of the range before that entry, so end
+		 * at the next position only.
+		 */
+		final int next = firstAtOrAfter(_positions[entry] + 1);
+		return (next < _positions.length) ? _positions[next] : length;
+	}
+
+	/**
+	 * Get the byte position before which the first records in the key ranges
+	 * start. All records from an index entry in a range up to the next entry
+	 * in the same range are in that range, so the index entries in the ranges
+	 * tell a position by which at least that many records in the ranges have
+	 * started. Of the records after the last entry in a range, only the entry
+	 * itself is counted.
+	 *
+	 * @param ranges
+	 *            The key ranges.
+	 * @param limit
+	 *            The number of records.
+	 * @param recordsPerEntry
+	 *            The number of records from one index entry to the next.
+	 * @param length
+	 *            The length of the data file.
+	 * @return The position of the index entry after the one by which the limit
+	 *         is reached, or the length of the data file if there is none.
+	 * @throws IOException
+	 *             if serialization of the bounds fails.
+	 */
+	long endOfFirst(final KeyRanges<K> ranges, final long limit,
+			final long recordsPerEntry, final long length) throws IOException {
+		if (limit <= 0) {
+			return 0;
+		}
+		long count = 0;
+		for (int i = 0; i < ranges.size(); i++) {
+			final KeyRange<K> range = ranges.get(i);
+			final int first = (range.getFrom() == null) ? 0 : lastLessThan(range
+					.getFrom()) + 1;
+			final int last;
+			if (range.getTo() == null) {
+				last = _positions.length - 1;
+			} else {
+				last = range.isToInclusive() ? lastAtMost(range.getTo())
+						: lastLessThan(range.getTo());
+			}
+			if (last < first) {
+				continue;
+			}
+			/* Huge index intervals must not overflow the count. */
+			final long inRange = ((last - first) > (Long.MAX_VALUE - 1)
+					/ recordsPerEntry) ? Long.MAX_VALUE : (last - first)
+					* recordsPerEntry + 1;
+			if (inRange >= limit - count) {
+				/*
+				 * The records from the first entry up to this one, and this
+				 * one itself, reach the limit.
+				 */
+				final long before = limit - count - 1;
+				long entries = before / recordsPerEntry;
+				if ((before % recordsPerEntry) != 0) {
+					entries++;
+				}
+				final int entry = first + (int) entries;
+				/* See endOf for block compressed files */
+				final int next = firstAtOrAfter(_positions[entry] + 1);
+				return (next < _positions.length) ? _positions[next] : length;
+			}
+			count += inRange;
+		}
+		return length;
+	}
+
+	/**
+	 * Get a lower bound for the keys of the records starting at or after a byte
+	 * position.
+	 *
+	 * @param position
+	 *            The byte position.
+	 * @return The key of the last index entry before the position, or the
+	 *         first key of the index if there is none, or <code>null</code> if
+	 *         the index is empty.
+	 * @throws IOException
+	 *             if deserialization of the key fails.
+	 */
+	K lowerBound(final long position) throws IOException {
+		/*
+		 * Every record starting at or after the position has a key that is at
+		 * least the key of the last index entry before it. The first key of
+		 * a MapFile is always in the index, so it is a lower bound for all
+		 * records.
+		 */
+		final int before = Math.max(lastBefore(position), 0);
+		return (before < _positions.length) ? getKey(before) : null;
+	}
+
+	/**
+	 * Get an upper bound for the keys of a split ending at a byte position.
+	 *
+	 * @param end
+	 *            End of the split (exclusive).
+	 * @return The key of the first index entry that surely belongs to a later
+	 *         split, or the last key of the data file if there is none, or
+	 *         <code>null</code> if that is unknown.
+	 * @throws IOException
+	 *             if deserialization of the key fails.
+	 */
+	K upperBound(final long end) throws IOException {
+		/*
+		 * A sync mark is written at least every SYNC_INTERVAL bytes, so a
+		 * record starting that far after the split end belongs to a later
+		 * split. All keys of the split are at most its key.
+		 */
+		final int after = firstAtOrAfter(end + SYNC_INTERVAL);
+		return (after < _positions.length) ? getKey(after) : _lastKey;
+	}
+
+	/**
+	 * Check if a split of the data file may contain keys in the given ranges.
+	 * The split is interpreted the same way as the {@link SequenceFile.Reader}
+	 * does: it contains all records after the first sync mark at or after its
+	 * start up to the first sync mark at or after its end.
+	 *
+	 * @param start
+	 *            Start of the split.
+	 * @param end
+	 *            End of the split (exclusive).
+	 * @param ranges
+	 *            The key ranges.
+	 * @return <code>false</code> if the index proves that no key in the split
+	 *         is in the ranges, <code>true</code> otherwise.
+	 * @throws IOException
+	 *             if deserialization of the bounds fails.
+	 */
+	boolean mayContain(final long start, final long end,
+			final KeyRanges<K> ranges) throws IOException {
+		return ranges.intersects(lowerBound(start), upperBound(end));
+	}
+}
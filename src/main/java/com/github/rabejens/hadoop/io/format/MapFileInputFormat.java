@@ -1,6 +1,7 @@
 package com.github.rabejens.hadoop.io.format;
 
 import static org.apache.commons.io.Charsets.US_ASCII;
+import static org.apache.hadoop.io.BloomMapFile.BLOOM_FILE_NAME;
 import static org.apache.hadoop.io.MapFile.DATA_FILE_NAME;
 import static org.apache.hadoop.io.MapFile.INDEX_FILE_NAME;
 
@@ -8,32 +9,72 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.codec.binary.Base64InputStream;
 import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BloomMapFile;
+import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * This is a special {@link FileInputFormat} for {@link MapFile}s. It works very
  * similar to the {@link SequenceFileInputFormat}. The difference is that the
- * input files must be {@link MapFile}s.
+ * input files must be {@link MapFile}s, or {@link BloomMapFile}s.
+ *
+ * If a key range is set, the index of each {@link MapFile} is used to drop
+ * splits which cannot contain any key of the range before the job is submitted.
+ * Optionally, the splits are cut at index entries instead, so they only cover
+ * the parts of each {@link MapFile} that can contain keys of the range, and
+ * each split covers about the same amount of them. If the {@link MapFile}s were
+ * written with the {@link TotalOrderPartitioner}, its partition file can be
+ * used to drop whole {@link MapFile}s without opening them. In incremental
+ * mode, only the {@link MapFile}s added since the last job are read.
+ *
+ * The number of splits dropped and the time it took are logged. The record
+ * readers count how effective the pruning and seeking in the tasks is, see
+ * {@link MapFileCounters}.
  *
  * @param K
  *            Data type of the keys. Must be a sub type of
@@ -46,17 +87,199 @@ import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 public class MapFileInputFormat<K extends WritableComparable<K>, V extends Writable>
 		extends FileInputFormat<K, V> {
 
-	private static final List<String> MAP_FILE_NAMES = Arrays.asList(
-			DATA_FILE_NAME, INDEX_FILE_NAME);
+	private static final Log LOG = LogFactory.getLog(MapFileInputFormat.class);
 
 	@Override
 	public RecordReader<K, V> createRecordReader(final InputSplit split,
 			final TaskAttemptContext context) throws IOException,
 			InterruptedException {
-		final Configuration conf = context.getConfiguration();
-		final K minKey = getMinKey(conf);
-		final K maxKey = getMaxKey(conf);
-		return new MapFileRecordReader<>(minKey, maxKey);
+		return newRecordReader(context.getConfiguration());
+	}
+
+	/* package-private for the MapredMapFileInputFormat */
+	static <K extends WritableComparable<K>, V extends Writable> MapFileRecordReader<K, V> newRecordReader(
+			final Configuration conf) throws IOException {
+		final KeyRanges<K> ranges = getKeyRanges(conf);
+		return new MapFileRecordReader<>(ranges, isRawComparison(conf),
+				isBloomFiltering(conf), isKeysOnly(conf), getLimit(conf),
+				isPassthrough(conf));
+	}
+
+	@Override
+	public List<InputSplit> getSplits(final JobContext job) throws IOException {
+		final Configuration conf = job.getConfiguration();
+		final KeyRanges<K> ranges = getKeyRanges(conf);
+		final long start = System.nanoTime();
+		if (isIndexSplitting(conf)) {
+			final List<InputSplit> splits = getIndexSplits(job, ranges);
+			LOG.info(String.format("Created %d index splits in %d ms",
+					splits.size(), (System.nanoTime() - start) / 1000000));
+			return splits;
+		}
+		final List<InputSplit> splits = super.getSplits(job);
+		if (ranges.isUnbounded() && (getLimit(conf) == Long.MAX_VALUE)) {
+			/* Without a key range or limit, every split is relevant. */
+			return splits;
+		}
+		final List<InputSplit> relevant = pruneSplits(splits, ranges, conf);
+		LOG.info(String.format("Pruned %d of %d splits in %d ms",
+				splits.size() - relevant.size(), splits.size(),
+				(System.nanoTime() - start) / 1000000));
+		return relevant;
+	}
+
+	/* package-private for tests */
+	static <K extends WritableComparable<K>> List<InputSplit> pruneSplits(
+			final List<InputSplit> splits, final KeyRanges<K> ranges,
+			final Configuration conf) throws IOException {
+		final List<InputSplit> relevant = new ArrayList<>();
+		if (ranges.size() == 0) {
+			/* Without any range, no split is relevant. */
+			return relevant;
+		}
+		/*
+		 * The splits of a data file are adjacent, so it suffices to keep the
+		 * index of the current MapFile only.
+		 */
+		final long limit = getLimit(conf);
+		Path currentPath = null;
+		MapFileIndex<K> index = null;
+		long tail = 0;
+		for (final InputSplit split : splits) {
+			final FileSplit fileSplit = (FileSplit) split;
+			final Path path = fileSplit.getPath();
+			if (!path.equals(currentPath)) {
+				currentPath = path;
+				index = readIndex(path, conf);
+				/*
+				 * No record at or after the tail is in the ranges. The ranges
+				 * are sorted, so the last one tells.
+				 */
+				tail = index.endOf(ranges.get(ranges.size() - 1),
+						Long.MAX_VALUE);
+				if (limit != Long.MAX_VALUE) {
+					/* Only the splits with the first records are needed. */
+					tail = Math.min(tail, index.endOfFirst(ranges, limit,
+							getRecordsPerIndexEntry(conf), Long.MAX_VALUE));
+				}
+			}
+			final long start = fileSplit.getStart();
+			if (start >= tail) {
+				/*
+				 * Neither this nor any later split of the file can contain
+				 * keys in the ranges, so skip them without looking at keys.
+				 */
+				continue;
+			}
+			if (index.mayContain(start, start + fileSplit.getLength(), ranges)) {
+				relevant.add(split);
+			}
+		}
+		return relevant;
+	}
+
+	private List<InputSplit> getIndexSplits(final JobContext job,
+			final KeyRanges<K> ranges) throws IOException {
+		final Configuration conf = job.getConfiguration();
+		final long minSize = Math.max(getFormatMinSplitSize(),
+				getMinSplitSize(job));
+		final long maxSize = getMaxSplitSize(job);
+		final long limit = getLimit(conf);
+		final List<InputSplit> splits = new ArrayList<>();
+		for (final FileStatus file : listStatus(job)) {
+			final Path path = file.getPath();
+			final long length = file.getLen();
+			final long splitSize = conf.getLong(MapFileInputFormat.class
+					.getName() + ".indexsplitsize", computeSplitSize(
+							file.getBlockSize(), minSize, maxSize));
+			final MapFileIndex<K> index = readIndex(file, conf);
+			final BlockLocation[] blocks = path.getFileSystem(conf)
+					.getFileBlockLocations(file, 0, length);
+			/*
+			 * Get the byte regions which can contain keys of the ranges. The
+			 * ranges are sorted, so are the regions, and overlapping ones are
+			 * merged.
+			 */
+			final long limitEnd = (limit == Long.MAX_VALUE) ? length : index
+					.endOfFirst(ranges, limit, getRecordsPerIndexEntry(conf),
+							length);
+			long regionStart = 0;
+			long regionEnd = 0;
+			for (int i = 0; i < ranges.size(); i++) {
+				final long start = index.startOf(ranges.get(i));
+				final long end = Math.min(limitEnd,
+						index.endOf(ranges.get(i), length));
+				if (start >= end) {
+					continue;
+				}
+				if (start > regionEnd) {
+					cutRegion(path, regionStart, regionEnd, splitSize, index,
+							blocks, splits);
+					regionStart = start;
+				}
+				regionEnd = Math.max(regionEnd, end);
+			}
+			cutRegion(path, regionStart, regionEnd, splitSize, index, blocks,
+					splits);
+		}
+		return splits;
+	}
+
+	/*
+	 * Cut a region of a data file into splits of about the same size at index
+	 * entries, so the splits start and end at record boundaries.
+	 */
+	private void cutRegion(final Path path, final long start, final long end,
+			final long splitSize, final MapFileIndex<K> index,
+			final BlockLocation[] blocks, final List<InputSplit> splits)
+			throws IOException {
+		if (start >= end) {
+			return;
+		}
+		final long count = Math.max(1,
+				Math.round((end - start) / (double) splitSize));
+		final double chunk = (end - start) / (double) count;
+		long splitStart = start;
+		for (long n = 1; n < count; n++) {
+			final int entry = index.firstAtOrAfter(start + (long) (n * chunk));
+			if ((entry == index.size()) || (index.getPosition(entry) >= end)) {
+				break;
+			}
+			final long cut = index.getPosition(entry);
+			if (cut > splitStart) {
+				splits.add(new MapFileSplit(path, splitStart, cut - splitStart,
+						blocks[getBlockIndex(blocks, splitStart)].getHosts()));
+				splitStart = cut;
+			}
+		}
+		splits.add(new MapFileSplit(path, splitStart, end - splitStart,
+				blocks[getBlockIndex(blocks, splitStart)].getHosts()));
+	}
+
+	/* package-private for the CombineMapFileInputFormat */
+	static <K extends WritableComparable<K>> MapFileIndex<K> readIndex(
+			final Path dataFile, final Configuration conf) throws IOException {
+		if (!isManifestCaching(conf)) {
+			return MapFileIndex.read(dataFile.getParent(), conf);
+		}
+		return readIndex(dataFile.getFileSystem(conf).getFileStatus(dataFile),
+				conf);
+	}
+
+	/*
+	 * Read the index of the MapFile of a data file, or its manifest if
+	 * manifest caching is enabled.
+	 */
+	private static <K extends WritableComparable<K>> MapFileIndex<K> readIndex(
+			final FileStatus dataFile, final Configuration conf)
+			throws IOException {
+		if (!isManifestCaching(conf)) {
+			return MapFileIndex.read(dataFile.getPath().getParent(), conf);
+		}
+		final String directory = conf.get(MapFileInputFormat.class.getName()
+				+ ".manifestdir");
+		return MapFileManifest.load(dataFile, (directory == null) ? null
+				: new Path(directory), conf);
 	}
 
 	@Override
@@ -64,50 +287,194 @@ public class MapFileInputFormat<K extends WritableComparable<K>, V extends Writa
 			throws IOException {
 		List<FileStatus> superStatus = super.listStatus(job);
 		final Configuration conf = job.getConfiguration();
-		return getMapFileStatuses(superStatus, conf);
+		return applyCheckpoint(getMapFileStatuses(superStatus, conf), conf);
+	}
+
+	/*
+	 * In incremental mode, drop the MapFiles processed by earlier jobs, and
+	 * write the pending checkpoint including the remaining ones.
+	 *
+	 * package-private for tests and the CombineMapFileInputFormat
+	 */
+	static List<FileStatus> applyCheckpoint(final List<FileStatus> dataFiles,
+			final Configuration conf) throws IOException {
+		final Path file = getCheckpoint(conf);
+		if (file == null) {
+			return dataFiles;
+		}
+		final MapFileCheckpoint checkpoint = MapFileCheckpoint.read(file, conf);
+		final List<FileStatus> unprocessed = new ArrayList<>();
+		for (final FileStatus dataFile : dataFiles) {
+			if (!checkpoint.contains(dataFile)) {
+				unprocessed.add(dataFile);
+			}
+		}
+		checkpoint.addAll(unprocessed);
+		checkpoint.write(MapFileCheckpoint.pending(file), conf);
+		LOG.info(String.format("%d of %d MapFiles are new or changed",
+				unprocessed.size(), dataFiles.size()));
+		return unprocessed;
 	}
 
 	/* package-private for tests */
-	static List<FileStatus> getMapFileStatuses(List<FileStatus> superStatus,
-			Configuration conf) throws IOException {
-		/* Get all MapFiles from the original list */
-		final List<FileStatus> mapFiles = new ArrayList<>();
+	static List<FileStatus> getMapFileStatuses(
+			final List<FileStatus> superStatus, final Configuration conf)
+			throws IOException {
+		/*
+		 * Collect the directories which may be MapFiles: directories
+		 * themselves, and the parent directories of files. Remember which
+		 * directories were already listed by the file input format.
+		 */
+		final Set<Path> candidates = new LinkedHashSet<>();
+		final Set<Path> directories = new HashSet<>();
+		final Map<Path, List<FileStatus>> listedFiles = new HashMap<>();
 		for (final FileStatus status : superStatus) {
-			/* Check if the file status belongs to a MapFile */
 			final Path path = status.getPath();
-			final FileSystem fs = path.getFileSystem(conf);
-			final Path parent = path.getParent();
-			if (!((status.isDirectory() && check(path, fs)) || (status.isFile() && check(
-					parent, fs)))) {
-				/*
-				 * Only consider if the path is a directory and the check
-				 * succeeds, or if the path is a file and the check of the
-				 * parent directory succeeds
-				 */
-				continue;
+			if (status.isDirectory()) {
+				candidates.add(path);
+				directories.add(path);
+			} else if (status.isFile()) {
+				final Path parent = path.getParent();
+				candidates.add(parent);
+				List<FileStatus> files = listedFiles.get(parent);
+				if (files == null) {
+					files = new ArrayList<>();
+					listedFiles.put(parent, files);
+				}
+				files.add(status);
 			}
-			/* Add the file status of the DATA file */
-			final FileStatus toAdd = status.isDirectory() ? fs
-					.getFileStatus(new Path(path, DATA_FILE_NAME)) : fs
-					.getFileStatus(new Path(parent, DATA_FILE_NAME));
-			if (!mapFiles.contains(toAdd)) {
-				mapFiles.add(toAdd);
+		}
+		pruneCandidates(candidates, conf);
+		/*
+		 * If the file input format already returned exactly the data and index
+		 * files of a directory, it is a MapFile. All other directories have to
+		 * be listed.
+		 */
+		final List<Callable<FileStatus>> listings = new ArrayList<>();
+		for (final Path candidate : candidates) {
+			final List<FileStatus> files = listedFiles.get(candidate);
+			final FileStatus dataFile = directories.contains(candidate) ? null
+					: findDataFile(files);
+			listings.add(new Callable<FileStatus>() {
+				@Override
+				public FileStatus call() throws IOException {
+					if (dataFile != null) {
+						return dataFile;
+					}
+					final FileSystem fs = candidate.getFileSystem(conf);
+					return findDataFile(Arrays.asList(fs.listStatus(candidate)));
+				}
+			});
+		}
+		/* Add the file status of the DATA file of each MapFile */
+		final List<FileStatus> mapFiles = new ArrayList<>();
+		for (final FileStatus dataFile : run(listings, conf)) {
+			if (dataFile != null) {
+				mapFiles.add(dataFile);
 			}
 		}
 		return mapFiles;
 	}
 
-	private static boolean check(final Path path, final FileSystem fs)
-			throws FileNotFoundException, IOException {
-		final FileStatus[] contents = fs.listStatus(path);
-		final int numContents = contents.length;
-		if (numContents != 2) {
-			/* A MapFile is a directory with exactly two entries */
-			return false;
+	/*
+	 * Drop the candidates whose partition cannot contain keys in the key
+	 * ranges, as told by the partition file, before listing them.
+	 */
+	private static <K extends WritableComparable<K>> void pruneCandidates(
+			final Set<Path> candidates, final Configuration conf)
+			throws IOException {
+		final String file = conf.get(MapFileInputFormat.class.getName()
+				+ ".partitionfile");
+		if (file == null) {
+			return;
+		}
+		final KeyRanges<K> ranges = getKeyRanges(conf);
+		if (ranges.isUnbounded()) {
+			return;
+		}
+		final PartitionFile<K> partitions = PartitionFile.read(new Path(file),
+				conf);
+		final int total = candidates.size();
+		final Iterator<Path> it = candidates.iterator();
+		while (it.hasNext()) {
+			if (!partitions.mayContain(PartitionFile.partitionOf(it.next()),
+					ranges)) {
+				it.remove();
+			}
+		}
+		LOG.info(String.format("Pruned %d of %d MapFiles by partition",
+				total - candidates.size(), total));
+	}
+
+	/*
+	 * Run the listings in a thread pool sized like the one of the file input
+	 * format, and return the results in order.
+	 */
+	private static List<FileStatus> run(
+			final List<Callable<FileStatus>> listings, final Configuration conf)
+			throws IOException {
+		final int numThreads = Math.min(listings.size(), conf.getInt(
+				LIST_STATUS_NUM_THREADS, DEFAULT_LIST_STATUS_NUM_THREADS));
+		final List<FileStatus> results = new ArrayList<>(listings.size());
+		if (numThreads <= 1) {
+			for (final Callable<FileStatus> listing : listings) {
+				try {
+					results.add(listing.call());
+				} catch (final IOException e) {
+					throw e;
+				} catch (final Exception e) {
+					throw new IOException(e);
+				}
+			}
+			return results;
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(
+				numThreads, new ThreadFactoryBuilder().setDaemon(true)
+						.setNameFormat("GetMapFileStatus #%d").build());
+		try {
+			for (final Future<FileStatus> future : executor.invokeAll(listings)) {
+				results.add(future.get());
+			}
+		} catch (final InterruptedException e) {
+			throw new InterruptedIOException(
+					"Interrupted while getting MapFile statuses");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	private static FileStatus findDataFile(final List<FileStatus> contents) {
+		if ((contents == null) || (contents.size() < 2)
+				|| (contents.size() > 3)) {
+			/*
+			 * A MapFile is a directory with exactly two entries, a
+			 * BloomMapFile has three.
+			 */
+			return null;
+		}
+		/* Check if there are the data and index files, and the bloom file */
+		FileStatus dataFile = null;
+		boolean index = false;
+		boolean bloom = false;
+		for (final FileStatus status : contents) {
+			final String name = status.getPath().getName();
+			if (DATA_FILE_NAME.equals(name) && (dataFile == null)) {
+				dataFile = status;
+			} else if (INDEX_FILE_NAME.equals(name) && !index) {
+				index = true;
+			} else if (BLOOM_FILE_NAME.equals(name) && !bloom) {
+				bloom = true;
+			} else {
+				return null;
+			}
 		}
-		/* Check if there are both the data and index files */
-		return MAP_FILE_NAMES.contains(contents[0].getPath().getName())
-				&& MAP_FILE_NAMES.contains(contents[1].getPath().getName());
+		return index ? dataFile : null;
 	}
 
 	/**
@@ -140,6 +507,508 @@ public class MapFileInputFormat<K extends WritableComparable<K>, V extends Writa
 		setKey("maxkey", maxKey, conf);
 	}
 
+	/**
+	 * Set multiple key ranges to process. This is useful if the relevant keys
+	 * are scattered over many disjoint ranges or single keys, which would
+	 * otherwise need one job per range. The ranges are sorted and merged, and
+	 * written to a side file, so the configuration stays small. The ranges are
+	 * further restricted by the minimum and maximum key, if set.
+	 *
+	 * @param ranges
+	 *            The key ranges. <code>null</code> to process all keys.
+	 * @param file
+	 *            The file to write the ranges to. It must be readable by all
+	 *            tasks of the job, so it should be on the default file system,
+	 *            e.g. in the job's staging directory.
+	 * @param conf
+	 *            The {@link Configuration} to put the file name into.
+	 * @throws IOException
+	 *             if writing the ranges fails.
+	 */
+	public static <K extends WritableComparable<K>> void setKeyRanges(
+			final Collection<KeyRange<K>> ranges, final Path file,
+			final Configuration conf) throws IOException {
+		if (ranges == null) {
+			/* For null ranges, only unset. */
+			conf.unset(MapFileInputFormat.class.getName() + ".keyranges");
+			return;
+		}
+		final KeyRanges<K> normalized = KeyRanges.normalize(ranges, null, null);
+		final FileSystem fs = file.getFileSystem(conf);
+		try (FSDataOutputStream out = fs.create(file, true)) {
+			normalized.write(out);
+		}
+		conf.set(MapFileInputFormat.class.getName() + ".keyranges", fs
+				.makeQualified(file).toString());
+	}
+
+	/* package-private for tests */
+	static <K extends WritableComparable<K>> KeyRanges<K> getKeyRanges(
+			final Configuration conf) throws IOException {
+		final K minKey = getMinKey(conf);
+		final K maxKey = getMaxKey(conf);
+		final String file = conf.get(MapFileInputFormat.class.getName()
+				+ ".keyranges");
+		if (file == null) {
+			return KeyRanges.of(minKey, maxKey);
+		}
+		final Path path = new Path(file);
+		try (FSDataInputStream in = path.getFileSystem(conf).open(path)) {
+			return KeyRanges.<K> read(in).restrict(minKey, maxKey);
+		}
+	}
+
+	/**
+	 * Set whether the keys are compared in their serialized form. If enabled,
+	 * the record reader reads the raw bytes of each key and compares them with
+	 * the serialized minimum and maximum keys using the
+	 * {@link WritableComparator} registered for the key class. Keys and values
+	 * are only deserialized for records in the key range. This pays off if the
+	 * key class has a raw comparator, like {@link Text}.
+	 *
+	 * @param raw
+	 *            <code>true</code> to compare serialized keys.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setRawComparison(final boolean raw,
+			final Configuration conf) {
+		conf.setBoolean(MapFileInputFormat.class.getName() + ".rawcomparison",
+				raw);
+	}
+
+	/**
+	 * Set whether the splits are cut at the index entries of each
+	 * {@link MapFile}. If enabled, each {@link MapFile} is only split within the
+	 * byte regions that can contain keys in the key ranges, as told by its
+	 * index, and these regions are cut into splits of about the same size. This
+	 * avoids splits that only contain a few relevant records, and tasks that
+	 * have to skip most of their split. The split size is computed like the
+	 * one of the {@link FileInputFormat}, unless set with
+	 * {@link #setIndexSplitSize(long, Configuration)}.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to cut the splits at index entries.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setIndexSplitting(final boolean enabled,
+			final Configuration conf) {
+		conf.setBoolean(MapFileInputFormat.class.getName() + ".indexsplits",
+				enabled);
+	}
+
+	/* package-private for tests */
+	static boolean isIndexSplitting(final Configuration conf) {
+		return conf.getBoolean(MapFileInputFormat.class.getName()
+				+ ".indexsplits", false);
+	}
+
+	/**
+	 * Set the target size of splits cut at index entries. Splits are as close
+	 * to this size as the index interval allows.
+	 *
+	 * @param size
+	 *            The target split size in bytes.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setIndexSplitSize(final long size,
+			final Configuration conf) {
+		conf.setLong(MapFileInputFormat.class.getName() + ".indexsplitsize",
+				size);
+	}
+
+	/**
+	 * Set the partition file of the job that wrote the {@link MapFile}s, if it
+	 * used the {@link TotalOrderPartitioner}. The split points in this file
+	 * tell which keys each <code>part-*</code> {@link MapFile} can contain, so
+	 * the {@link MapFile}s which cannot contain keys in the key ranges are
+	 * dropped before they are even listed. {@link MapFile}s whose names do not
+	 * end with a partition number are kept.
+	 *
+	 * @param file
+	 *            The partition file, usually <code>_partition.lst</code>.
+	 *            <code>null</code> to not use a partition file.
+	 * @param conf
+	 *            The {@link Configuration} to put the file name into.
+	 * @throws IOException
+	 *             if the file system of the partition file cannot be
+	 *             determined.
+	 */
+	public static void setPartitionFile(final Path file,
+			final Configuration conf) throws IOException {
+		if (file == null) {
+			/* For null files, only unset. */
+			conf.unset(MapFileInputFormat.class.getName() + ".partitionfile");
+			return;
+		}
+		conf.set(MapFileInputFormat.class.getName() + ".partitionfile", file
+				.getFileSystem(conf).makeQualified(file).toString());
+	}
+
+	/**
+	 * Set whether the index of each {@link MapFile} is cached in a manifest.
+	 * The manifest also holds the last key of the data file, so splits after
+	 * it can be dropped, too. It is written on the first use and reused as
+	 * long as the length and modification time of the data file stay the
+	 * same, so this pays off for jobs that run repeatedly over unchanged
+	 * {@link MapFile}s. The manifests are stored as hidden files next to the
+	 * {@link MapFile}s, unless set with
+	 * {@link #setManifestDirectory(Path, Configuration)}. If they cannot be
+	 * written, the index is read every time.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to cache the indexes in manifests.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setManifestCaching(final boolean enabled,
+			final Configuration conf) {
+		conf.setBoolean(MapFileInputFormat.class.getName() + ".manifests",
+				enabled);
+	}
+
+	/* package-private for tests */
+	static boolean isManifestCaching(final Configuration conf) {
+		return conf.getBoolean(MapFileInputFormat.class.getName()
+				+ ".manifests", false);
+	}
+
+	/**
+	 * Set the directory to store the manifests of the {@link MapFile}s in, see
+	 * {@link #setManifestCaching(boolean, Configuration)}. This is useful if
+	 * the {@link MapFile}s are on a read-only location.
+	 *
+	 * @param directory
+	 *            The directory. <code>null</code> to store the manifests next
+	 *            to the {@link MapFile}s.
+	 * @param conf
+	 *            The {@link Configuration} to put the directory name into.
+	 * @throws IOException
+	 *             if the file system of the directory cannot be determined.
+	 */
+	public static void setManifestDirectory(final Path directory,
+			final Configuration conf) throws IOException {
+		if (directory == null) {
+			/* For null directories, only unset. */
+			conf.unset(MapFileInputFormat.class.getName() + ".manifestdir");
+			return;
+		}
+		conf.set(MapFileInputFormat.class.getName() + ".manifestdir",
+				directory.getFileSystem(conf).makeQualified(directory)
+						.toString());
+	}
+
+	/**
+	 * Set how many entries of the index of each {@link MapFile} are skipped
+	 * for each entry kept in memory, like <code>io.map.index.skip</code> does
+	 * for the {@link MapFile.Reader}. This caps the memory used for very large
+	 * indexes, both when planning the job and in the tasks, at the expense of
+	 * coarser pruning and seeking.
+	 *
+	 * @param skip
+	 *            The number of entries to skip after each kept one. 0 to keep
+	 *            all entries.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setIndexSkip(final int skip, final Configuration conf) {
+		conf.setInt(MapFileInputFormat.class.getName() + ".indexskip", skip);
+	}
+
+	/* package-private for the MapFileIndex */
+	static int getIndexSkip(final Configuration conf) {
+		return Math.max(0, conf.getInt(MapFileInputFormat.class.getName()
+				+ ".indexskip", 0));
+	}
+
+	/**
+	 * Set whether the bloom filters of {@link BloomMapFile}s are used for
+	 * single keys in the key ranges. If enabled, the record reader checks each
+	 * single key against the bloom filter of the {@link BloomMapFile} first,
+	 * and only seeks to the keys that may be in it. This pays off for sparse
+	 * lookups of many single keys, see
+	 * {@link #setKeyRanges(Collection, Path, Configuration)}. {@link MapFile}s
+	 * without a bloom filter are read as usual.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to use bloom filters.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setBloomFiltering(final boolean enabled,
+			final Configuration conf) {
+		conf.setBoolean(MapFileInputFormat.class.getName() + ".bloom", enabled);
+	}
+
+	/* package-private for tests */
+	static boolean isBloomFiltering(final Configuration conf) {
+		return conf.getBoolean(MapFileInputFormat.class.getName() + ".bloom",
+				false);
+	}
+
+	/**
+	 * Set whether only the keys are read. If enabled, the values are never
+	 * read, and each value is a {@link NullWritable}, so the value class of the
+	 * job must be {@link NullWritable}. This is useful for jobs which only
+	 * count or collect keys.
+	 *
+	 * @param keysOnly
+	 *            <code>true</code> to only read the keys.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setKeysOnly(final boolean keysOnly,
+			final Configuration conf) {
+		conf.setBoolean(MapFileInputFormat.class.getName() + ".keysonly",
+				keysOnly);
+	}
+
+	/* package-private for tests */
+	static boolean isKeysOnly(final Configuration conf) {
+		return conf.getBoolean(MapFileInputFormat.class.getName()
+				+ ".keysonly", false);
+	}
+
+	/**
+	 * Set whether the records are passed through in their serialized form. If
+	 * enabled, the keys are compared in their serialized form, and each key
+	 * and value is a {@link BytesWritable} holding its serialized bytes, which
+	 * are never deserialized. So the key and value classes of the job must be
+	 * {@link BytesWritable}. This is useful for jobs which only copy or
+	 * repartition parts of {@link MapFile}s, e.g. with the
+	 * {@link SequenceFile.Writer#appendRaw(byte[], int, int, SequenceFile.ValueBytes)}
+	 * method. The key and value classes of the {@link MapFile} being read are
+	 * put into the configuration of the task, see
+	 * {@link #getPassthroughKeyClassName(Configuration)}.
+	 *
+	 * The {@link BytesWritable}s are reused for every record, and only refer to
+	 * the buffers of the record reader, so they must be copied to be kept.
+	 *
+	 * @param passthrough
+	 *            <code>true</code> to pass the serialized records through.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setPassthrough(final boolean passthrough,
+			final Configuration conf) {
+		conf.setBoolean(MapFileInputFormat.class.getName() + ".passthrough",
+				passthrough);
+	}
+
+	/* package-private for tests */
+	static boolean isPassthrough(final Configuration conf) {
+		return conf.getBoolean(MapFileInputFormat.class.getName()
+				+ ".passthrough", false);
+	}
+
+	/**
+	 * In passthrough mode, get the key class of the {@link MapFile} currently
+	 * read by the task, see {@link #setPassthrough(boolean, Configuration)}.
+	 *
+	 * @param conf
+	 *            The {@link Configuration} of the task.
+	 * @return The name of the key class, or <code>null</code> if no
+	 *         {@link MapFile} has been opened yet.
+	 */
+	public static String getPassthroughKeyClassName(final Configuration conf) {
+		return conf.get(MapFileInputFormat.class.getName()
+				+ ".passthrough.keyclass");
+	}
+
+	/**
+	 * In passthrough mode, get the value class of the {@link MapFile}
+	 * currently read by the task, see
+	 * {@link #setPassthrough(boolean, Configuration)}.
+	 *
+	 * @param conf
+	 *            The {@link Configuration} of the task.
+	 * @return The name of the value class, or <code>null</code> if no
+	 *         {@link MapFile} has been opened yet.
+	 */
+	public static String getPassthroughValueClassName(final Configuration conf) {
+		return conf.get(MapFileInputFormat.class.getName()
+				+ ".passthrough.valueclass");
+	}
+
+	/* package-private for the MapFileRecordReader */
+	static void setPassthroughClassNames(final String keyClassName,
+			final String valueClassName, final Configuration conf) {
+		conf.set(MapFileInputFormat.class.getName() + ".passthrough.keyclass",
+				keyClassName);
+		conf.set(MapFileInputFormat.class.getName()
+				+ ".passthrough.valueclass", valueClassName);
+	}
+
+	/**
+	 * Set the maximum number of records to read from each split. If set, each
+	 * {@link MapFile} is only split up to the first records in the key ranges,
+	 * as estimated from its index, and each record reader stops after that
+	 * many records. So a job only interested in the first records of a range
+	 * runs fewer tasks and reads less. As the splits of a {@link MapFile} may
+	 * together return more records, and several {@link MapFile}s are read,
+	 * the job still has to apply the exact limit itself, e.g. in its reducer.
+	 * The estimate assumes the {@link MapFile}s were written with an index
+	 * interval of at least the <code>io.map.index.interval</code> of the
+	 * {@link Configuration}.
+	 *
+	 * @param limit
+	 *            The maximum number of records. {@link Long#MAX_VALUE} for no
+	 *            limit.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setLimit(final long limit, final Configuration conf) {
+		conf.setLong(MapFileInputFormat.class.getName() + ".limit", limit);
+	}
+
+	/*
+	 * The number of records from one index entry kept in memory to the next,
+	 * see setLimit
+	 */
+	private static long getRecordsPerIndexEntry(final Configuration conf) {
+		return Math.max(1, conf.getInt("io.map.index.interval", 128))
+				* (getIndexSkip(conf) + 1L);
+	}
+
+	/* package-private for tests */
+	static long getLimit(final Configuration conf) {
+		return Math.max(0, conf.getLong(MapFileInputFormat.class.getName()
+				+ ".limit", Long.MAX_VALUE));
+	}
+
+	/**
+	 * Set how much of the data files is read ahead. If enabled, the record
+	 * reader reads the next chunks of its data file in a background thread
+	 * while the mapper processes the current one. This pays off on file
+	 * systems with a high latency per read, like erasure coded HDFS or S3,
+	 * especially for mappers which spend much CPU time per record. The time the
+	 * record readers still wait for data is counted in
+	 * {@link MapFileCounters#READ_AHEAD_STALL_MILLIS}.
+	 *
+	 * @param chunks
+	 *            The number of chunks to read ahead. 0 to disable reading
+	 *            ahead.
+	 * @param chunkSize
+	 *            The size of each chunk in bytes, e.g. the size of the
+	 *            compressed blocks.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setReadAhead(final int chunks, final int chunkSize,
+			final Configuration conf) {
+		conf.setInt(MapFileInputFormat.class.getName() + ".readahead", chunks);
+		conf.setInt(MapFileInputFormat.class.getName()
+				+ ".readaheadchunksize", chunkSize);
+	}
+
+	/* package-private for the MapFileRecordReader */
+	static int getReadAheadChunks(final Configuration conf) {
+		return Math.max(0, conf.getInt(MapFileInputFormat.class.getName()
+				+ ".readahead", 0));
+	}
+
+	/* package-private for the MapFileRecordReader */
+	static int getReadAheadChunkSize(final Configuration conf) {
+		return Math.max(1, conf.getInt(MapFileInputFormat.class.getName()
+				+ ".readaheadchunksize", 1024 * 1024));
+	}
+
+	/**
+	 * Set how many threads decompress block compressed {@link MapFile}s. If
+	 * more than one, each record reader decompresses several blocks at once
+	 * while returning the records of the current one, in their original order.
+	 * So a task reading a key range of a {@link MapFile} compressed with a slow
+	 * codec can use several cores. {@link MapFile}s which are not block
+	 * compressed are read as usual.
+	 *
+	 * @param threads
+	 *            The number of threads per record reader. 0 or 1 to decompress
+	 *            in the reading thread.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setDecompressionThreads(final int threads,
+			final Configuration conf) {
+		conf.setInt(MapFileInputFormat.class.getName()
+				+ ".decompressionthreads", threads);
+	}
+
+	/**
+	 * Set the checkpoint file for incremental processing. If set, only the
+	 * {@link MapFile}s which were not processed by an earlier job with the same
+	 * checkpoint, or which changed since, are read. The key ranges apply to
+	 * them as usual. So a job which runs regularly over a growing set of
+	 * {@link MapFile}s only processes the new ones.
+	 *
+	 * When the job is planned, a pending checkpoint is written next to the
+	 * checkpoint file. Call {@link #commitCheckpoint(Configuration)} once the
+	 * job has succeeded to make it the checkpoint for the next job. Otherwise,
+	 * the next job processes the same {@link MapFile}s again.
+	 *
+	 * @param file
+	 *            The checkpoint file. <code>null</code> to read all
+	 *            {@link MapFile}s.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 * @throws IOException
+	 *             if the file system of the checkpoint file cannot be
+	 *             determined.
+	 */
+	public static void setCheckpoint(final Path file, final Configuration conf)
+			throws IOException {
+		if (file == null) {
+			/* For null files, only unset. */
+			conf.unset(MapFileInputFormat.class.getName() + ".checkpoint");
+			return;
+		}
+		conf.set(MapFileInputFormat.class.getName() + ".checkpoint", file
+				.getFileSystem(conf).makeQualified(file).toString());
+	}
+
+	/* package-private for tests */
+	static Path getCheckpoint(final Configuration conf) {
+		final String file = conf.get(MapFileInputFormat.class.getName()
+				+ ".checkpoint");
+		return (file == null) ? null : new Path(file);
+	}
+
+	/**
+	 * Make the pending checkpoint of a succeeded job the checkpoint for the
+	 * next job, see {@link #setCheckpoint(Path, Configuration)}.
+	 *
+	 * @param conf
+	 *            The {@link Configuration} of the job.
+	 * @throws IOException
+	 *             if there is no pending checkpoint, or it cannot be renamed.
+	 */
+	public static void commitCheckpoint(final Configuration conf)
+			throws IOException {
+		final Path file = getCheckpoint(conf);
+		if (file == null) {
+			throw new IOException("No checkpoint set");
+		}
+		final Path pending = MapFileCheckpoint.pending(file);
+		final FileSystem fs = file.getFileSystem(conf);
+		if (!fs.exists(pending)) {
+			throw new IOException("No pending checkpoint " + pending);
+		}
+		MapFileCheckpoint.replace(pending, file, fs);
+	}
+
+	/* package-private for the MapFileRecordReader */
+	static int getDecompressionThreads(final Configuration conf) {
+		return conf.getInt(MapFileInputFormat.class.getName()
+				+ ".decompressionthreads", 0);
+	}
+
+	/* package-private for tests */
+	static boolean isRawComparison(final Configuration conf) {
+		return conf.getBoolean(MapFileInputFormat.class.getName()
+				+ ".rawcomparison", false);
+	}
+
 	private static <K extends WritableComparable<K>> void setKey(
 			final String which, final K key, final Configuration conf)
 			throws IOException {
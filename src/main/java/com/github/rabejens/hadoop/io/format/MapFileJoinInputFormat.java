@@ -0,0 +1,233 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * An {@link InputFormat} which joins several inputs of {@link MapFile}s sorted
+ * by the same key without a shuffle. Each input is a directory of
+ * {@link MapFile}s or a single {@link MapFile}, like the output of a job.
+ *
+ * The key space is cut into key ranges of about the same amount of data, as
+ * estimated from the indexes of all {@link MapFile}s of all inputs, and each
+ * split covers one of these ranges in all inputs. The record reader merges the
+ * records of each input and joins them on their keys, so the mapper gets each
+ * key once, with the values of all inputs. In an inner join, only keys found
+ * in all inputs are returned, in an outer join, all keys are.
+ *
+ * The key ranges and the raw comparison of the {@link MapFileInputFormat}
+ * apply to all inputs.
+ *
+ * @param K
+ *            Data type of the keys. Must be a sub type of
+ *            {@link WritableComparable}.
+ *
+ * @author Jens Rabe
+ */
+public class MapFileJoinInputFormat<K extends WritableComparable<K>> extends
+		InputFormat<K, JoinedValues> {
+
+	@Override
+	public RecordReader<K, JoinedValues> createRecordReader(
+			final InputSplit split, final TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		final Configuration conf = context.getConfiguration();
+		return new MapFileJoinRecordReader<>(isOuterJoin(conf),
+				MapFileInputFormat.isRawComparison(conf));
+	}
+
+	@Override
+	public List<InputSplit> getSplits(final JobContext job) throws IOException {
+		final Configuration conf = job.getConfiguration();
+		final KeyRanges<K> ranges = MapFileInputFormat.getKeyRanges(conf);
+		final Path[] inputs = getInputs(conf);
+		/*
+		 * Find the MapFiles of each input, and read their indexes. The last
+		 * keys tell which MapFiles end before a split, so they are needed.
+		 */
+		final List<List<FileStatus>> files = new ArrayList<>();
+		final List<List<MapFileIndex<K>>> indexes = new ArrayList<>();
+		final List<IndexCursor<K>> cursors = new ArrayList<>();
+		for (final Path input : inputs) {
+			final FileSystem fs = input.getFileSystem(conf);
+			final List<FileStatus> mapFiles = MapFileInputFormat
+					.getMapFileStatuses(Arrays.asList(fs.listStatus(input)),
+							conf);
+			final List<MapFileIndex<K>> inputIndexes = new ArrayList<>();
+			for (final FileStatus dataFile : mapFiles) {
+				MapFileIndex<K> index = MapFileInputFormat.readIndex(
+						dataFile.getPath(), conf);
+				if (!MapFileInputFormat.isManifestCaching(conf)) {
+					/* Manifests already know the last key. */
+					index = index.withLastKey(dataFile.getPath(), conf);
+				}
+				inputIndexes.add(index);
+				if (index.size() > 0) {
+					cursors.add(new IndexCursor<>(index, dataFile.getLen()));
+				}
+			}
+			files.add(mapFiles);
+			indexes.add(inputIndexes);
+		}
+		/*
+		 * Go through the index entries of all MapFiles in key order, and cut
+		 * whenever enough data in the key ranges has been passed.
+		 */
+		final long splitSize = getSplitSize(conf);
+		final PriorityQueue<IndexCursor<K>> queue = new PriorityQueue<>(
+				Math.max(1, cursors.size()), IndexCursor.<K> byKey());
+		for (final IndexCursor<K> cursor : cursors) {
+			cursor.advance();
+			queue.add(cursor);
+		}
+		final List<InputSplit> splits = new ArrayList<>();
+		K lower = null;
+		long size = 0;
+		while (!queue.isEmpty()) {
+			final IndexCursor<K> cursor = queue.poll();
+			final K key = cursor.getKey();
+			if ((size >= splitSize)
+					&& ((lower == null) || (key.compareTo(lower) > 0))) {
+				addSplit(splits, ranges.restrict(lower, key), files, indexes,
+						size);
+				lower = key;
+				size = 0;
+			}
+			if (ranges.contains(key)) {
+				size += cursor.bytes();
+			}
+			if (cursor.advance()) {
+				queue.add(cursor);
+			}
+		}
+		addSplit(splits, ranges.restrict(lower, null), files, indexes, size);
+		return splits;
+	}
+
+	/*
+	 * Add a split for key ranges, with the MapFiles of each input which may
+	 * contain keys in them.
+	 */
+	private void addSplit(final List<InputSplit> splits,
+			final KeyRanges<K> ranges, final List<List<FileStatus>> files,
+			final List<List<MapFileIndex<K>>> indexes, final long size)
+			throws IOException {
+		if (ranges.size() == 0) {
+			return;
+		}
+		final Path[][] paths = new Path[files.size()][];
+		final long[][] lengths = new long[files.size()][];
+		for (int i = 0; i < files.size(); i++) {
+			final List<Path> inputPaths = new ArrayList<>();
+			final List<Long> inputLengths = new ArrayList<>();
+			for (int j = 0; j < files.get(i).size(); j++) {
+				final FileStatus dataFile = files.get(i).get(j);
+				if (indexes.get(i).get(j)
+						.mayContain(0, dataFile.getLen(), ranges)) {
+					inputPaths.add(dataFile.getPath());
+					inputLengths.add(dataFile.getLen());
+				}
+			}
+			paths[i] = inputPaths.toArray(new Path[inputPaths.size()]);
+			lengths[i] = new long[inputLengths.size()];
+			for (int j = 0; j < lengths[i].length; j++) {
+				lengths[i][j] = inputLengths.get(j);
+			}
+		}
+		splits.add(new MapFileJoinSplit<>(ranges, paths, lengths, size));
+	}
+
+	/**
+	 * Set the inputs to join. Each input is a directory of {@link MapFile}s, or
+	 * a single {@link MapFile}. All inputs must have the same key class.
+	 *
+	 * @param conf
+	 *            The {@link Configuration} to put the inputs into.
+	 * @param inputs
+	 *            The inputs. The values of the joined records are in the same
+	 *            order.
+	 * @throws IOException
+	 *             if the file system of an input cannot be determined.
+	 */
+	public static void setInputs(final Configuration conf, final Path... inputs)
+			throws IOException {
+		final String[] qualified = new String[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			qualified[i] = StringUtils.escapeString(inputs[i]
+					.getFileSystem(conf).makeQualified(inputs[i]).toString());
+		}
+		conf.set(MapFileJoinInputFormat.class.getName() + ".inputs",
+				StringUtils.join(",", Arrays.asList(qualified)));
+	}
+
+	/* package-private for tests */
+	static Path[] getInputs(final Configuration conf) throws IOException {
+		final String inputs = conf.get(MapFileJoinInputFormat.class.getName()
+				+ ".inputs");
+		if (inputs == null) {
+			throw new IOException("No inputs to join");
+		}
+		final String[] names = StringUtils.split(inputs);
+		final Path[] paths = new Path[names.length];
+		for (int i = 0; i < names.length; i++) {
+			paths[i] = new Path(StringUtils.unEscapeString(names[i]));
+		}
+		return paths;
+	}
+
+	/**
+	 * Set whether the inputs are joined with an outer join. Otherwise, only
+	 * the keys found in all inputs are returned.
+	 *
+	 * @param outer
+	 *            <code>true</code> for an outer join.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setOuterJoin(final boolean outer,
+			final Configuration conf) {
+		conf.setBoolean(MapFileJoinInputFormat.class.getName() + ".outer",
+				outer);
+	}
+
+	/* package-private for tests */
+	static boolean isOuterJoin(final Configuration conf) {
+		return conf.getBoolean(MapFileJoinInputFormat.class.getName()
+				+ ".outer", false);
+	}
+
+	/**
+	 * Set the target amount of data per split, over all inputs.
+	 *
+	 * @param size
+	 *            The split size in bytes.
+	 * @param conf
+	 *            The {@link Configuration} to put the setting into.
+	 */
+	public static void setSplitSize(final long size, final Configuration conf) {
+		conf.setLong(MapFileJoinInputFormat.class.getName() + ".splitsize",
+				size);
+	}
+
+	/* package-private for tests */
+	static long getSplitSize(final Configuration conf) {
+		return conf.getLong(MapFileJoinInputFormat.class.getName()
+				+ ".splitsize", 128L * 1024 * 1024);
+	}
+}
@@ -0,0 +1,202 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * A {@link RecordReader} for a {@link MapFileJoinSplit}. It reads the key
+ * ranges of the split from all MapFiles of each input with a
+ * {@link MapFileRecordReader}, merges the sorted records of each input, and
+ * joins the inputs on their keys. If an input has several records with the
+ * same key, every combination of the values is returned.
+ *
+ * @param K
+ *            Data type of the keys.
+ */
+final class MapFileJoinRecordReader<K extends WritableComparable<K>> extends
+		RecordReader<K, JoinedValues> {
+
+	private final boolean _outer;
+	private final boolean _raw;
+	private Configuration _conf;
+	/* The readers of each input, ordered by their current keys */
+	private List<PriorityQueue<MapFileRecordReader<K, Writable>>> _inputs;
+	private final List<MapFileRecordReader<K, Writable>> _readers = new ArrayList<>();
+	/* The values of the current key, per input */
+	private List<List<Writable>> _values;
+	/* The current combination of values, null if there is none left */
+	private int[] _combination;
+	private K _key;
+	private JoinedValues _value;
+	private long _total;
+	private long _done;
+
+	MapFileJoinRecordReader(final boolean outer, final boolean raw) {
+		_outer = outer;
+		_raw = raw;
+	}
+
+	@Override
+	public void initialize(final InputSplit split,
+			final TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		_conf = context.getConfiguration();
+		/*
+		 * Unchecked cast is OK because this reader is only used by the
+		 * MapFileJoinInputFormat, whose splits have the keys of the job.
+		 */
+		@SuppressWarnings("unchecked")
+		final MapFileJoinSplit<K> joinSplit = (MapFileJoinSplit<K>) split;
+		final Comparator<MapFileRecordReader<K, Writable>> byKey = new Comparator<MapFileRecordReader<K, Writable>>() {
+			@Override
+			public int compare(final MapFileRecordReader<K, Writable> o1,
+					final MapFileRecordReader<K, Writable> o2) {
+				return o1.getCurrentKey().compareTo(o2.getCurrentKey());
+			}
+		};
+		_inputs = new ArrayList<>(joinSplit.getNumInputs());
+		_values = new ArrayList<>(joinSplit.getNumInputs());
+		for (int i = 0; i < joinSplit.getNumInputs(); i++) {
+			final PriorityQueue<MapFileRecordReader<K, Writable>> input = new PriorityQueue<>(
+					Math.max(1, joinSplit.getFiles(i).length), byKey);
+			for (int j = 0; j < joinSplit.getFiles(i).length; j++) {
+				final MapFileRecordReader<K, Writable> reader = new MapFileRecordReader<>(
+						joinSplit.getRanges(), _raw);
+				_readers.add(reader);
+				reader.initialize(new MapFileSplit(joinSplit.getFiles(i)[j],
+						0, joinSplit.getLengths(i)[j], new String[0]), context);
+				if (reader.nextKeyValue()) {
+					input.add(reader);
+				}
+				_total++;
+			}
+			_inputs.add(input);
+			_values.add(new ArrayList<Writable>());
+		}
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		while (!nextCombination()) {
+			/* Find the smallest key of all inputs */
+			K min = null;
+			for (final PriorityQueue<MapFileRecordReader<K, Writable>> input : _inputs) {
+				if (!input.isEmpty()) {
+					final K key = input.peek().getCurrentKey();
+					if ((min == null) || (key.compareTo(min) < 0)) {
+						min = key;
+					}
+				}
+			}
+			if (min == null) {
+				/* All inputs are exhausted. */
+				_key = null;
+				_value = null;
+				return false;
+			}
+			/* The readers reuse their keys, so copy it. */
+			_key = WritableUtils.clone(min, _conf);
+			boolean complete = true;
+			for (int i = 0; i < _inputs.size(); i++) {
+				collect(i);
+				complete &= !_values.get(i).isEmpty();
+			}
+			if (complete || _outer) {
+				_combination = new int[_inputs.size()];
+				_combination[_combination.length - 1] = -1;
+			}
+		}
+		return true;
+	}
+
+	/* Collect the values of the current key of an input */
+	private void collect(final int i) throws IOException, InterruptedException {
+		final PriorityQueue<MapFileRecordReader<K, Writable>> input = _inputs
+				.get(i);
+		final List<Writable> values = _values.get(i);
+		values.clear();
+		while (!input.isEmpty()
+				&& (input.peek().getCurrentKey().compareTo(_key) == 0)) {
+			final MapFileRecordReader<K, Writable> reader = input.poll();
+			/* The readers reuse their values, so copy them. */
+			values.add(WritableUtils.clone(reader.getCurrentValue(), _conf));
+			if (reader.nextKeyValue()) {
+				input.add(reader);
+			} else {
+				_done++;
+			}
+		}
+	}
+
+	/*
+	 * Go to the next combination of values of the current key, like an
+	 * odometer. Inputs without values count as one null value.
+	 */
+	private boolean nextCombination() {
+		if (_combination == null) {
+			return false;
+		}
+		int i = _combination.length - 1;
+		while (i >= 0) {
+			_combination[i]++;
+			if (_combination[i] < Math.max(1, _values.get(i).size())) {
+				break;
+			}
+			_combination[i] = 0;
+			i--;
+		}
+		if (i < 0) {
+			_combination = null;
+			return false;
+		}
+		_value = new JoinedValues(_inputs.size());
+		for (int j = 0; j < _combination.length; j++) {
+			final List<Writable> values = _values.get(j);
+			if (!values.isEmpty()) {
+				_value.set(j, values.get(_combination[j]));
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public K getCurrentKey() {
+		return _key;
+	}
+
+	@Override
+	public JoinedValues getCurrentValue() {
+		return _value;
+	}
+
+	@Override
+	public float getProgress() {
+		return (_total == 0) ? 1.0f : _done / (float) _total;
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException error = null;
+		for (final MapFileRecordReader<K, Writable> reader : _readers) {
+			try {
+				reader.close();
+			} catch (final IOException e) {
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+}
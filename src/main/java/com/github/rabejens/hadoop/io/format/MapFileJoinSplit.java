@@ -0,0 +1,123 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * A split of a {@link MapFileJoinInputFormat}. It covers the same key ranges
+ * in every input, and holds the data files of the {@link MapFile}s of each
+ * input which may contain keys in these ranges.
+ *
+ * @param K
+ *            Data type of the keys.
+ */
+final class MapFileJoinSplit<K extends WritableComparable<K>> extends
+		InputSplit implements Writable {
+
+	private KeyRanges<K> _ranges;
+	/* The data files and their lengths, per input */
+	private Path[][] _files;
+	private long[][] _lengths;
+	private long _length;
+
+	/* For deserialization */
+	MapFileJoinSplit() {
+	}
+
+	MapFileJoinSplit(final KeyRanges<K> ranges, final Path[][] files,
+			final long[][] lengths, final long length) {
+		_ranges = ranges;
+		_files = files;
+		_lengths = lengths;
+		_length = length;
+	}
+
+	/**
+	 * @return The key ranges of this split.
+	 */
+	KeyRanges<K> getRanges() {
+		return _ranges;
+	}
+
+	/**
+	 * @return The number of inputs.
+	 */
+	int getNumInputs() {
+		return _files.length;
+	}
+
+	/**
+	 * @param input
+	 *            The number of the input.
+	 * @return The data files of the input.
+	 */
+	Path[] getFiles(final int input) {
+		return _files[input];
+	}
+
+	/**
+	 * @param input
+	 *            The number of the input.
+	 * @return The lengths of the data files of the input.
+	 */
+	long[] getLengths(final int input) {
+		return _lengths[input];
+	}
+
+	/**
+	 * @return The estimated number of bytes in the key ranges, over all
+	 *         inputs.
+	 */
+	@Override
+	public long getLength() {
+		return _length;
+	}
+
+	@Override
+	public String[] getLocations() {
+		/* The data is spread over the files of all inputs. */
+		return new String[0];
+	}
+
+	@Override
+	public void write(final DataOutput out) throws IOException {
+		_ranges.write(out);
+		out.writeInt(_files.length);
+		for (int i = 0; i < _files.length; i++) {
+			out.writeInt(_files[i].length);
+			for (int j = 0; j < _files[i].length; j++) {
+				out.writeUTF(_files[i][j].toString());
+				out.writeLong(_lengths[i][j]);
+			}
+		}
+		out.writeLong(_length);
+	}
+
+	@Override
+	public void readFields(final DataInput in) throws IOException {
+		_ranges = KeyRanges.read(in);
+		_files = new Path[in.readInt()][];
+		_lengths = new long[_files.length][];
+		for (int i = 0; i < _files.length; i++) {
+			_files[i] = new Path[in.readInt()];
+			_lengths[i] = new long[_files[i].length];
+			for (int j = 0; j < _files[i].length; j++) {
+				_files[i][j] = new Path(in.readUTF());
+				_lengths[i][j] = in.readLong();
+			}
+		}
+		_length = in.readLong();
+	}
+
+	@Override
+	public String toString() {
+		return _ranges.toString();
+	}
+}
@@ -0,0 +1,120 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * A cached copy of the index of a {@link MapFile}, together with the last key
+ * of its data file. It is stored next to the {@link MapFile} as a hidden file,
+ * or in a cache directory, and is only used as long as the length and
+ * modification time of the data file are the same as when it was written, and
+ * it was written with the same index skip, see
+ * {@link MapFileInputFormat#setIndexSkip(int, Configuration)}. So
+ * planning a job over unchanged {@link MapFile}s costs one small read per
+ * {@link MapFile}, and the last key allows to drop splits after it without
+ * reading the data file.
+ */
+final class MapFileManifest {
+
+	/* Marks the file format, increment when it changes */
+	private static final int MAGIC = 0x4d464d03;
+
+	private MapFileManifest() {
+	}
+
+	/**
+	 * Get the index of a {@link MapFile}, from its manifest if that is up to
+	 * date. Otherwise, read the index and the last key, and write the manifest.
+	 *
+	 * @param dataFile
+	 *            The status of the data file of the {@link MapFile}.
+	 * @param directory
+	 *            The cache directory, or <code>null</code> to store the
+	 *            manifest next to the {@link MapFile}.
+	 * @param conf
+	 *            The {@link Configuration} to use.
+	 * @return The index, including the last key.
+	 * @throws IOException
+	 *             if neither the manifest nor the {@link MapFile} can be read.
+	 */
+	static <K extends WritableComparable<K>> MapFileIndex<K> load(
+			final FileStatus dataFile, final Path directory,
+			final Configuration conf) throws IOException {
+		final Path manifest = locate(dataFile.getPath(), directory, conf);
+		final FileSystem fs = manifest.getFileSystem(conf);
+		final int skip = MapFileInputFormat.getIndexSkip(conf);
+		try (FSDataInputStream in = fs.open(manifest)) {
+			if ((in.readInt() == MAGIC)
+					&& (in.readLong() == dataFile.getLen())
+					&& (in.readLong() == dataFile.getModificationTime())
+					&& (in.readInt() == skip)) {
+				return MapFileIndex.read(in, conf);
+			}
+		} catch (final IOException e) {
+			/* Missing or broken, so rebuild it. */
+		}
+		final MapFileIndex<K> index = MapFileIndex.<K> read(
+				dataFile.getPath().getParent(), conf).withLastKey(
+				dataFile.getPath(), conf);
+		write(index, dataFile, skip, manifest, fs);
+		return index;
+	}
+
+	/*
+	 * Write the manifest to a temporary file first and rename it, so
+	 * concurrent jobs never see a partial manifest. Writing is best effort,
+	 * e.g. the MapFiles may be on a read-only location.
+	 */
+	private static void write(final MapFileIndex<?> index,
+			final FileStatus dataFile, final int skip, final Path manifest,
+			final FileSystem fs) {
+		final Path tmp = new Path(manifest.getParent(), manifest.getName()
+				+ "." + UUID.randomUUID() + ".tmp");
+		try {
+			try (FSDataOutputStream out = fs.create(tmp, true)) {
+				out.writeInt(MAGIC);
+				out.writeLong(dataFile.getLen());
+				out.writeLong(dataFile.getModificationTime());
+				out.writeInt(skip);
+				index.write(out);
+			}
+			fs.delete(manifest, false);
+			if (!fs.rename(tmp, manifest)) {
+				fs.delete(tmp, false);
+			}
+		} catch (final IOException e) {
+			try {
+				fs.delete(tmp, false);
+			} catch (final IOException e2) {
+				/* Nothing left to do. */
+			}
+		}
+	}
+
+	private static Path locate(final Path dataFile, final Path directory,
+			final Configuration conf) throws IOException {
+		final Path mapFile = dataFile.getParent();
+		if (directory == null) {
+			/*
+			 * Hidden files are ignored by the FileInputFormat, and a MapFile
+			 * directory must not contain anything else, so put it beside.
+			 */
+			return new Path(mapFile.getParent(), "." + mapFile.getName()
+					+ ".manifest");
+		}
+		final String qualified = mapFile.getFileSystem(conf)
+				.makeQualified(mapFile).toString();
+		return new Path(directory, MD5Hash.digest(qualified).toString()
+				+ ".manifest");
+	}
+}
@@ -1,130 +1,774 @@
 package com.github.rabejens.hadoop.io.format;
 
+import static org.apache.hadoop.io.BloomMapFile.BLOOM_FILE_NAME;
 import static org.apache.hadoop.io.SequenceFile.Reader.file;
+import static org.apache.hadoop.io.SequenceFile.Reader.length;
+import static org.apache.hadoop.io.SequenceFile.Reader.stream;
 
 import java.io.IOException;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.SequenceFile.Reader;
+import org.apache.hadoop.io.SequenceFile.ValueBytes;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.bloom.DynamicBloomFilter;
+import org.apache.hadoop.util.bloom.Key;
 
 /**
+ * A {@link RecordReader} for the data file of a MapFile. It treats splits the
+ * same way as the {@link SequenceFileRecordReader}, but only returns records
+ * whose keys are in the given {@link KeyRanges}. The index of the MapFile is
+ * used to decide if a split is relevant at all, and to skip directly to the
+ * next relevant part of the split whenever a range has been read. A
+ * {@link MapFileSplit} is read from exactly its start to its end instead.
+ *
+ * Values are only read for records in the key ranges, or not at all in the
+ * keys-only mode, where each value is a {@link NullWritable}. The number of
+ * records returned can be limited.
+ *
+ * Optionally, keys are compared in their serialized form with the
+ * {@link RawComparator} of the key class, so only records in the key ranges
+ * are deserialized. In the passthrough mode, they are not deserialized at all,
+ * and each key and value is a {@link BytesWritable} referring to the buffer
+ * with its serialized form.
+ *
+ * Optionally, single keys in the key ranges are checked against the bloom
+ * filter of a BloomMapFile before seeking to them, so keys which are not in the
+ * file are skipped without reading anything.
+ *
+ * Optionally, the data file is read ahead in a background thread, see
+ * {@link MapFileInputFormat#setReadAhead(int, int, Configuration)}.
+ *
+ * Optionally, block compressed data files are decompressed by several threads
+ * with a {@link ParallelBlockReader}, once the reader is at the first relevant
+ * block.
+ *
+ * When closed, the reader adds its statistics to the {@link MapFileCounters},
+ * and logs them at debug level.
+ *
  * @author jens
  *
  */
 final class MapFileRecordReader<K extends WritableComparable<K>, V extends Writable>
-extends SequenceFileRecordReader<K, V> {
+extends RecordReader<K, V> {
+
+	private static final Log LOG = LogFactory.getLog(MapFileRecordReader.class);
+
+	/* The record length and key length in front of each record */
+	private static final int RECORD_HEADER_SIZE = 8;
+	/* The escape and hash of a sync mark */
+	private static final int SYNC_SIZE = 4 + 16;
 
-	private final K _minKey;
-	private final K _maxKey;
-	private boolean _relevant;
+	private final KeyRanges<K> _ranges;
+	private final boolean _raw;
+	private final boolean _bloomLookup;
+	private final boolean _keysOnly;
+	private final long _limit;
+	private final boolean _passthrough;
+	/* The number of records returned so far */
+	private long _count;
+	private Reader _in;
+	/* The stream reading ahead, null if not used */
+	private ReadAheadInputStream _readAhead;
+	/* The reader decompressing blocks in parallel, null if not used */
+	private ParallelBlockReader _blocks;
+	private TaskAttemptContext _context;
+	private MapFileIndex<K> _index;
+	private long _start;
+	private long _end;
+	/* Whether the split boundaries are record boundaries, see MapFileSplit */
+	private boolean _exact;
+	private boolean _more;
+	private K _key;
+	private V _value;
+	/* The range the current key is compared to */
+	private int _range;
+	/* The range the reader last seeked to */
+	private int _seekedRange = -1;
+	/* The bloom filter of a BloomMapFile, null if not used */
+	private DynamicBloomFilter _bloom;
+	/* The last range the bloom filter was checked for */
+	private int _checkedRange = -1;
+
+	/* Only used when comparing serialized keys */
+	private RawComparator<K> _comparator;
+	private final DataOutputBuffer _rawKey = new DataOutputBuffer();
+	private ValueBytes _rawValue;
+	private final DataOutputBuffer _valueBuffer = new DataOutputBuffer();
+	private final DataInputBuffer _deserializeBuffer = new DataInputBuffer();
+	/* Only used in passthrough mode, views of _rawKey and _valueBuffer */
+	private BytesWritable _keyView = new BytesWritable();
+	private BytesWritable _valueView = new BytesWritable();
+
+	/* Statistics, see MapFileCounters */
+	private FileSplit _split;
+	private boolean _pruned;
+	private long _recordsRead;
+	private long _bytesEmitted;
+	/* The position the current record starts at, before any sync mark */
+	private long _recordPos;
+	private long _bytesSeekedOver;
+	private long _probeNanos;
+	private long _seekNanos;
 
 	MapFileRecordReader(final K minKey, final K maxKey) {
-		_minKey = minKey;
-		_maxKey = maxKey;
+		this(minKey, maxKey, false);
+	}
+
+	MapFileRecordReader(final K minKey, final K maxKey, final boolean raw) {
+		this(KeyRanges.of(minKey, maxKey), raw);
+	}
+
+	MapFileRecordReader(final KeyRanges<K> ranges, final boolean raw) {
+		this(ranges, raw, false);
+	}
+
+	MapFileRecordReader(final KeyRanges<K> ranges, final boolean raw,
+			final boolean bloomLookup) {
+		this(ranges, raw, bloomLookup, false);
+	}
+
+	MapFileRecordReader(final KeyRanges<K> ranges, final boolean raw,
+			final boolean bloomLookup, final boolean keysOnly) {
+		this(ranges, raw, bloomLookup, keysOnly, Long.MAX_VALUE);
+	}
+
+	MapFileRecordReader(final KeyRanges<K> ranges, final boolean raw,
+			final boolean bloomLookup, final boolean keysOnly, final long limit) {
+		this(ranges, raw, bloomLookup, keysOnly, limit, false);
+	}
+
+	MapFileRecordReader(final KeyRanges<K> ranges, final boolean raw,
+			final boolean bloomLookup, final boolean keysOnly,
+			final long limit, final boolean passthrough) {
+		_ranges = ranges;
+		/* Passing through needs the keys to be compared raw. */
+		_raw = raw || passthrough;
+		_bloomLookup = bloomLookup;
+		_keysOnly = keysOnly;
+		_limit = limit;
+		_passthrough = passthrough;
 	}
 
 	@Override
 	public void initialize(final InputSplit split,
 			final TaskAttemptContext context) throws IOException,
 			InterruptedException {
-		/*
-		 * Check if this split is even relevant. For this, open it with a
-		 * SequenceFile reader and check first and last keys.
-		 */
 		final Configuration conf = context.getConfiguration();
+		_context = context;
 		/*
 		 * The input split is always a FileSplit, as this reader is only used by
 		 * the MapFileInputFormat which only outputs FileSplits.
 		 */
 		final FileSplit fileSplit = (FileSplit) split;
-		try (Reader r = new Reader(conf, file(fileSplit.getPath()))) {
+		_split = fileSplit;
+		open(fileSplit, conf);
+		if (_passthrough) {
+			MapFileInputFormat.setPassthroughClassNames(_in.getKeyClassName(),
+					_in.getValueClassName(), conf);
+		}
+		if (_more && !_ranges.isUnbounded()) {
 			/*
-			 * Instantiate a key. Unchecked cast is OK because
-			 * ClassCastExceptions resulting from wrong key type in a file are
-			 * desired.
+			 * Check if this split is even relevant. For this, use the index of
+			 * the MapFile to get bounds for the first and last keys.
 			 */
-			@SuppressWarnings("unchecked")
-			final K key = (K) r.getKeyClass().newInstance();
-			/* Sync to the beginning of the file split */
-			final long start = fileSplit.getStart();
-			r.sync(start);
-			if (!r.next(key)) {
-				/* Nothing to read? Split is irrelevant. */
-				return;
+			final long probeStart = System.nanoTime();
+			_index = MapFileIndex.read(fileSplit.getPath().getParent(), conf);
+			_more = isRelevant();
+			if (_more && _bloomLookup) {
+				_bloom = readBloomFilter(fileSplit.getPath().getParent(), conf);
+				while ((_range < _ranges.size()) && isRejected(_range)) {
+					_range++;
+				}
+				_more = _range < _ranges.size();
 			}
-			if ((_maxKey != null) && (_maxKey.compareTo(key) <= 0)) {
-				/* Max key is before or at current key? Split is irrelevant. */
-				return;
+			_probeNanos = System.nanoTime() - probeStart;
+			_pruned = !_more;
+			if (_more) {
+				seekToRange(_range);
 			}
-			if (_minKey != null) {
-				/*
-				 * Go to the last key, and rewind by 256 bytes until there is a
-				 * key to read.
-				 */
-				final long end = (start + fileSplit.getLength()) - 1;
-				long pos = end;
-				do {
-					r.sync(pos);
-					pos -= 256;
-				} while (!r.next(key));
+		}
+		final int threads = MapFileInputFormat.getDecompressionThreads(conf);
+		if (_more && (threads > 1) && _in.isBlockCompressed()) {
+			/*
+			 * From here on, the blocks are read raw and decompressed in
+			 * parallel. The reader is at the start of a block.
+			 */
+			if (!_raw) {
+				prepareRaw(conf);
+			}
+			final Path path = fileSplit.getPath();
+			_blocks = new ParallelBlockReader(path.getFileSystem(conf).open(
+					path), _in.getPosition(), _end,
+					_in.getCompressionCodec(), threads);
+		}
+	}
+
+	private static DynamicBloomFilter readBloomFilter(final Path mapFile,
+			final Configuration conf) throws IOException {
+		final Path bloomFile = new Path(mapFile, BLOOM_FILE_NAME);
+		final FileSystem fs = bloomFile.getFileSystem(conf);
+		if (!fs.exists(bloomFile)) {
+			/* Not a BloomMapFile */
+			return null;
+		}
+		final DynamicBloomFilter bloom = new DynamicBloomFilter();
+		try (FSDataInputStream in = fs.open(bloomFile)) {
+			bloom.readFields(in);
+		}
+		return bloom;
+	}
+
+	private void open(final FileSplit split, final Configuration conf)
+			throws IOException {
+		final int chunks = MapFileInputFormat.getReadAheadChunks(conf);
+		if (chunks > 0) {
+			final FileSystem fs = split.getPath().getFileSystem(conf);
+			final long fileLength = fs.getFileStatus(split.getPath()).getLen();
+			_readAhead = new ReadAheadInputStream(fs.open(split.getPath()),
+					fileLength, MapFileInputFormat.getReadAheadChunkSize(conf),
+					chunks);
+			_in = new Reader(conf, stream(new FSDataInputStream(_readAhead)),
+					length(fileLength));
+		} else {
+			_in = new Reader(conf, file(split.getPath()));
+		}
+		_end = split.getStart() + split.getLength();
+		_exact = split instanceof MapFileSplit;
+		if (split.getStart() > _in.getPosition()) {
+			if (_exact) {
+				_in.seek(split.getStart());
+			} else {
 				/*
-				 * Now we are at a key we can check. Go through the file until
-				 * we are at the split's end or ran out of keys.
+				 * Go to the first sync mark of the split, like SequenceFile
+				 * splits do.
 				 */
-				K currentLast;
-				do {
-					currentLast = key;
-				} while (r.next(key)
-						&& ((r.getPosition() <= end) || !r.syncSeen()));
-				if ((currentLast != null)
-						&& (_minKey.compareTo(currentLast) > 0)) {
-					/*
-					 * If there is a last key, and it is before the minimum key,
-					 * the split is irrelevant.
-					 */
-					return;
-				}
+				_in.sync(split.getStart());
 			}
+		}
+		_start = _in.getPosition();
+		_more = (_start < _end) && (_ranges.size() > 0);
+		if (_raw) {
+			prepareRaw(conf);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void prepareRaw(final Configuration conf) throws IOException {
+		/*
+		 * Unchecked casts are OK because ClassCastExceptions resulting from
+		 * wrong types in a file are desired.
+		 */
+		final Class<? extends WritableComparable<?>> keyClass = (Class<? extends WritableComparable<?>>) _in
+				.getKeyClass();
+		_comparator = WritableComparator.get(keyClass, conf);
+		_rawValue = _in.createValueBytes();
+		if (_passthrough) {
+			/* Keys and values are never deserialized. */
+			return;
+		}
+		_key = (K) ReflectionUtils.newInstance(keyClass, conf);
+		if (!_keysOnly) {
+			_value = (V) ReflectionUtils.newInstance(_in.getValueClass(), conf);
+		}
+	}
+
+	private boolean isRelevant() throws IOException {
+		if (!_index.mayContain(_start, _end, _ranges)) {
+			return false;
+		}
+		if ((_index.firstAtOrAfter(_start) < _index.firstAtOrAfter(_end))
+				|| ((_ranges.size() == 1) && (_ranges.getMinKey() == null))) {
+			/*
+			 * If there is an index entry within the split, seeking to the
+			 * ranges skips all but at most one index interval of irrelevant
+			 * records per range, and upper bounds are checked with the first
+			 * record read anyway.
+			 */
+			return true;
+		}
+		/*
+		 * The index interval is too coarse to tell anything about the keys in
+		 * this split, so check the last key of the split.
+		 */
+		final K lastKey = probeLastKey();
+		_in.seek(_start);
+		return (lastKey != null)
+				&& _ranges.intersects(_index.lowerBound(_start), lastKey);
+	}
+
+	@SuppressWarnings("unchecked")
+	private K probeLastKey() throws IOException {
+		/*
+		 * Instantiate the keys. Unchecked cast is OK because
+		 * ClassCastExceptions resulting from wrong key type in a file are
+		 * desired.
+		 */
+		K key;
+		K last;
+		try {
+			key = (K) _in.getKeyClass().newInstance();
+			last = (K) _in.getKeyClass().newInstance();
 		} catch (InstantiationException | IllegalAccessException e) {
 			throw new IOException("Cannot instantiate key: " + e.getMessage(),
 					e);
 		}
-		/* If we are here, the split is relevant. The reader can be initialized. */
-		_relevant = true;
-		super.initialize(split, context);
+		/*
+		 * There is no index entry within the split, so read its keys once from
+		 * its start, the way nextKeyValue does, and keep the last one. Its
+		 * first sync mark is at its start, so stepping back from its end
+		 * would not find a key at all if that is its only one.
+		 */
+		_in.seek(_start);
+		boolean found = false;
+		long recordPos = _start;
+		while (_in.next(key) && !isPastEnd(recordPos)) {
+			final K tmp = last;
+			last = key;
+			key = tmp;
+			found = true;
+			recordPos = _in.getPosition();
+		}
+		/* Without any record, the split is not relevant. */
+		return found ? last : null;
+	}
+
+	private void seekToRange(final int range) throws IOException {
+		_seekedRange = range;
+		final K from = _ranges.get(range).getFrom();
+		if (from == null) {
+			return;
+		}
+		/*
+		 * All records before the last index entry with a key less than the
+		 * lower bound of the range have keys less than the lower bound, so
+		 * they can be skipped. Only seek forward, and only within the split.
+		 */
+		final int entry = Math.min(_index.lastLessThan(from),
+				_index.lastBefore(_end));
+		if (entry < 0) {
+			return;
+		}
+		final long position = _index.getPosition(entry);
+		final long current = getPosition();
+		if (position > current) {
+			final long seekStart = System.nanoTime();
+			if (_blocks != null) {
+				_blocks.seek(position);
+			} else {
+				_in.seek(position);
+			}
+			_seekNanos += System.nanoTime() - seekStart;
+			_bytesSeekedOver += position - current;
+		}
+	}
+
+	/* Add the statistics to the counters, and log them */
+	private void report() throws IOException {
+		final long bytesRead = _pruned ? 0 : Math.max(0, getPosition()
+				- _start - _bytesSeekedOver);
+		final long stallNanos = (_readAhead == null) ? 0 : _readAhead
+				.getStallNanos();
+		increment(MapFileCounters.SPLITS_PRUNED, _pruned ? 1 : 0);
+		increment(MapFileCounters.RECORDS_READ, _recordsRead);
+		increment(MapFileCounters.RECORDS_SKIPPED, _recordsRead - _count);
+		increment(MapFileCounters.BYTES_READ, bytesRead);
+		increment(MapFileCounters.BYTES_EMITTED, _bytesEmitted);
+		increment(MapFileCounters.BYTES_SEEKED_OVER, _bytesSeekedOver);
+		increment(MapFileCounters.PROBE_MILLIS, _probeNanos / 1000000);
+		increment(MapFileCounters.SEEK_MILLIS, _seekNanos / 1000000);
+		increment(MapFileCounters.READ_AHEAD_STALL_MILLIS, stallNanos / 1000000);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug(String.format(
+					"%s: %s, %d of %d records returned, %d bytes read, "
+							+ "%d bytes returned, %d bytes seeked over, "
+							+ "probe %d ms, seek %d ms, read-ahead stall %d ms",
+					_split, _pruned ? "pruned" : "relevant", _count,
+					_recordsRead, bytesRead, _bytesEmitted, _bytesSeekedOver,
+					_probeNanos / 1000000, _seekNanos / 1000000,
+					stallNanos / 1000000));
+		}
+	}
+
+	/*
+	 * The serialized size of the current record, or 0 where it is not known,
+	 * see MapFileCounters.BYTES_EMITTED
+	 */
+	private long getEmittedBytes() throws IOException {
+		if (_raw || (_blocks != null)) {
+			/* The value has been read into the buffer, unless keys only. */
+			return _rawKey.getLength()
+					+ (_keysOnly ? 0 : _valueBuffer.getLength());
+		}
+		if (_keysOnly || _in.isCompressed()) {
+			/* Compressed values are only known in their compressed size. */
+			return 0;
+		}
+		/* The whole record has been read by the SequenceFile.Reader. */
+		return _in.getPosition() - _recordPos - RECORD_HEADER_SIZE
+				- (_in.syncSeen() ? SYNC_SIZE : 0);
+	}
+
+	private void increment(final MapFileCounters name, final long amount) {
+		/* Contexts outside of a task have no counters. */
+		final Counter counter = _context.getCounter(name);
+		if (counter != null) {
+			counter.increment(amount);
+		}
+	}
+
+	/*
+	 * The position in the data file, like the SequenceFile.Reader has it
+	 *
+	 * package-private for the MapredMapFileRecordReader
+	 */
+	long getPosition() throws IOException {
+		return (_blocks != null) ? _blocks.getPosition() : _in.getPosition();
 	}
 
 	@Override
 	public synchronized void close() throws IOException {
-		if (_relevant) {
-			super.close();
+		if (_in == null) {
+			/* Never opened, or closed before, so nothing to count again. */
+			return;
+		}
+		try {
+			report();
+			if (_blocks != null) {
+				_blocks.close();
+				_blocks = null;
+			}
+		} finally {
+			_in.close();
+			_in = null;
+		}
+	}
+
+	/*
+	 * Read the next record into the given key and value, as the old API does.
+	 * In passthrough mode, the views are copied into them.
+	 *
+	 * package-private for the MapredMapFileRecordReader
+	 */
+	boolean nextKeyValue(final K key, final V value) throws IOException,
+			InterruptedException {
+		if (_passthrough) {
+			if (!nextKeyValue()) {
+				return false;
+			}
+			((BytesWritable) (Writable) key).set(_keyView);
+			if (!_keysOnly) {
+				((BytesWritable) value).set(_valueView);
+			}
+			return true;
+		}
+		_key = key;
+		if (!_keysOnly) {
+			_value = value;
+		}
+		return nextKeyValue();
+	}
+
+	/*
+	 * A new key of the class returned, as the old API needs it
+	 *
+	 * package-private for the MapredMapFileRecordReader
+	 */
+	@SuppressWarnings("unchecked")
+	K createKey() {
+		/*
+		 * Unchecked cast is OK because ClassCastExceptions resulting from wrong
+		 * types in a file or job are desired.
+		 */
+		final Class<?> cls = _passthrough ? BytesWritable.class : _in
+				.getKeyClass();
+		return (K) ReflectionUtils.newInstance(cls,
+				_context.getConfiguration());
+	}
+
+	/*
+	 * A new value of the class returned, as the old API needs it
+	 *
+	 * package-private for the MapredMapFileRecordReader
+	 */
+	@SuppressWarnings("unchecked")
+	V createValue() {
+		/*
+		 * Unchecked casts are OK because ClassCastExceptions resulting from
+		 * wrong types in a file or job are desired.
+		 */
+		if (_keysOnly) {
+			return (V) NullWritable.get();
 		}
+		final Class<?> cls = _passthrough ? BytesWritable.class : _in
+				.getValueClass();
+		return (V) ReflectionUtils.newInstance(cls,
+				_context.getConfiguration());
+	}
+
+	@Override
+	public K getCurrentKey() {
+		return _key;
+	}
+
+	@Override
+	public V getCurrentValue() {
+		return _value;
+	}
+
+	@Override
+	public float getProgress() throws IOException {
+		if (!_more) {
+			/*
+			 * Once past the last range or the split's end, the rest of the
+			 * split is never read.
+			 */
+			return 1.0f;
+		}
+		if (_end == _start) {
+			return 0.0f;
+		}
+		return Math.min(1.0f, (getPosition() - _start)
+				/ (float) (_end - _start));
 	}
 
 	@Override
 	public boolean nextKeyValue() throws IOException, InterruptedException {
-		if (!_relevant) {
+		if (_count >= _limit) {
+			/* Enough records read? Then stop. */
+			_more = false;
+			_key = null;
+			_value = null;
 			return false;
 		}
-		do {
-			/* Read a value. */
-			final boolean snkv = super.nextKeyValue();
-			if (!snkv) {
-				/* No more? Then stop. */
+		while (_raw ? readNextRawKey() : readNext()) {
+			_recordsRead++;
+			/*
+			 * Skip all ranges the current key is past, and all single keys
+			 * which are surely not in the file.
+			 */
+			while ((_range < _ranges.size())
+					&& (isAbove(_range) || isRejected(_range))) {
+				_range++;
+			}
+			if (_range == _ranges.size()) {
+				/* Past the last range? Then stop. */
+				_more = false;
 				return false;
 			}
-			if ((_maxKey != null) && (getCurrentKey().compareTo(_maxKey) >= 0)) {
-				/* Past the max key? Then stop. */
+			if (!isBelow(_range)) {
+				/* The key is in the current range, so read its value. */
+				if (_passthrough) {
+					passKey();
+				} else if (_raw) {
+					deserializeKey();
+				}
+				readValue();
+				_count++;
+				_bytesEmitted += getEmittedBytes();
+				return true;
+			}
+			if (_seekedRange != _range) {
+				/* Before the current range? Then try to skip to it. */
+				seekToRange(_range);
+			}
+		}
+		return false;
+	}
+
+	private boolean isRejected(final int range) throws IOException {
+		if ((_bloom == null) || (range <= _checkedRange)) {
+			return false;
+		}
+		if (_ranges.get(range).isPoint()
+				&& !_bloom.membershipTest(new Key(_ranges.getRawFrom(range)))) {
+			return true;
+		}
+		_checkedRange = range;
+		return false;
+	}
+
+	private boolean isAbove(final int range) throws IOException {
+		if (!_raw) {
+			return _ranges.isAbove(_key, range);
+		}
+		final byte[] to = _ranges.getRawTo(range);
+		if (to == null) {
+			return false;
+		}
+		final int cmp = compareRawKey(to);
+		return (cmp > 0) || ((cmp == 0) && !_ranges.get(range).isToInclusive());
+	}
+
+	private boolean isBelow(final int range) throws IOException {
+		if (!_raw) {
+			return _ranges.isBelow(_key, range);
+		}
+		final byte[] from = _ranges.getRawFrom(range);
+		return (from != null) && (compareRawKey(from) < 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean readNext() throws IOException {
+		if (_blocks != null) {
+			/* Blocks are always read raw, so deserialize the key right away. */
+			if (!readNextRawKey()) {
+				_key = null;
+				_value = null;
 				return false;
 			}
-			/* Repeat until the key is in our range. */
-		} while ((_minKey != null) && (getCurrentKey().compareTo(_minKey) < 0));
+			deserializeKey();
+			return true;
+		}
+		if (!_more) {
+			return false;
+		}
+		final long pos = _in.getPosition();
+		_recordPos = pos;
+		final Object key = _in.next((Object) _key);
+		if ((key == null) || isPastEnd(pos)) {
+			_more = false;
+			_key = null;
+			_value = null;
+			return false;
+		}
+		/*
+		 * Unchecked cast is OK because ClassCastExceptions resulting from wrong
+		 * types in a file are desired. The value is only read if the key is in
+		 * the ranges; otherwise the reader skips it with the next key.
+		 */
+		_key = (K) key;
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readValue() throws IOException {
+		/*
+		 * Unchecked casts are OK because ClassCastExceptions resulting from
+		 * wrong types in a file or job are desired.
+		 */
+		if (_keysOnly) {
+			_value = (V) NullWritable.get();
+		} else if (_passthrough) {
+			readRawValue();
+			_valueView = view(_valueView, _valueBuffer);
+			_value = (V) (Writable) _valueView;
+		} else if (_raw || (_blocks != null)) {
+			deserializeValue();
+		} else {
+			_value = (V) _in.getCurrentValue((Object) _value);
+		}
+	}
+
+	private boolean isPastEnd(final long pos) {
+		if (pos < _end) {
+			return false;
+		}
+		/*
+		 * The split ends at the first sync mark at or after its end, the rest
+		 * belongs to the next split. Exact splits of files that are not block
+		 * compressed end at the record at their end. In block compressed
+		 * files, that record starts a block and thus a sync mark anyway.
+		 */
+		final boolean syncSeen = (_blocks != null) ? _blocks.syncSeen() : _in
+				.syncSeen();
+		return syncSeen || (_exact && !_in.isBlockCompressed());
+	}
+
+	private boolean readNextRawKey() throws IOException {
+		if (!_more) {
+			return false;
+		}
+		final long pos = getPosition();
+		_rawKey.reset();
+		final int keyLength = (_blocks != null) ? _blocks
+				.nextRawKey(_rawKey) : _in.nextRawKey(_rawKey);
+		if ((keyLength < 0) || isPastEnd(pos)) {
+			_more = false;
+			return false;
+		}
+		if ((_blocks == null) && !_in.isBlockCompressed()) {
+			/*
+			 * Outside of blocks, the value directly follows the key, so it must
+			 * be read anyway. It is not decompressed or deserialized, though.
+			 */
+			_in.nextRawValue(_rawValue);
+		}
 		return true;
 	}
+
+	private void deserializeKey() throws IOException {
+		_deserializeBuffer.reset(_rawKey.getData(), _rawKey.getLength());
+		_key.readFields(_deserializeBuffer);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void passKey() {
+		/*
+		 * Unchecked cast is OK because ClassCastExceptions resulting from a
+		 * wrong key class of the job are desired.
+		 */
+		_keyView = view(_keyView, _rawKey);
+		_key = (K) (WritableComparable<?>) _keyView;
+	}
+
+	/*
+	 * Refer to the data of a buffer without copying it. Only when the buffer
+	 * has grown, a new view is needed.
+	 */
+	private static BytesWritable view(final BytesWritable view,
+			final DataOutputBuffer buffer) {
+		final BytesWritable current = (view.getBytes() == buffer.getData()) ? view
+				: new BytesWritable(buffer.getData());
+		current.setSize(buffer.getLength());
+		return current;
+	}
+
+	private void deserializeValue() throws IOException {
+		readRawValue();
+		_deserializeBuffer.reset(_valueBuffer.getData(),
+				_valueBuffer.getLength());
+		_value.readFields(_deserializeBuffer);
+	}
+
+	/* Read the serialized value into the _valueBuffer */
+	private void readRawValue() throws IOException {
+		_valueBuffer.reset();
+		if (_blocks != null) {
+			_blocks.nextRawValue(_valueBuffer);
+		} else {
+			if (_in.isBlockCompressed()) {
+				/*
+				 * In block compressed files, the values of a block are only
+				 * decompressed when the first one is requested.
+				 */
+				_in.nextRawValue(_rawValue);
+			}
+			_rawValue.writeUncompressedBytes(_valueBuffer);
+		}
+	}
+
+	private int compareRawKey(final byte[] other) {
+		return _comparator.compare(_rawKey.getData(), 0, _rawKey.getLength(),
+				other, 0, other.length);
+	}
 }
@@ -0,0 +1,346 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+/**
+ * Reads key ranges from a directory of {@link MapFile}s without MapReduce,
+ * e.g. in a long-running service. It prunes and seeks the same way as the
+ * {@link MapFileInputFormat} does. The {@link MapFile}s are read in parallel
+ * with the given {@link ExecutorService}, and their records are merged in key
+ * order.
+ *
+ * The settings of the {@link MapFileInputFormat} for raw comparison and bloom
+ * filters are taken from the {@link Configuration}.
+ *
+ * @param K
+ *            Data type of the keys.
+ * @param V
+ *            Data type of the values.
+ *
+ * @author Jens Rabe
+ */
+public class MapFileScanner<K extends WritableComparable<K>, V extends Writable> {
+
+	/* The number of records read from a MapFile at once */
+	private static final int BATCH_SIZE = 1024;
+
+	private final Configuration _conf;
+	private final ExecutorService _executor;
+
+	/**
+	 * Create a scanner.
+	 *
+	 * @param conf
+	 *            The {@link Configuration} to use.
+	 * @param executor
+	 *            The {@link ExecutorService} to read the {@link MapFile}s
+	 *            with. Any number of threads works, as the {@link MapFile}s
+	 *            are read in batches.
+	 */
+	public MapFileScanner(final Configuration conf,
+			final ExecutorService executor) {
+		_conf = conf;
+		_executor = executor;
+	}
+
+	/**
+	 * Scan a single key range [minKey, maxKey).
+	 *
+	 * @param directory
+	 *            A directory of {@link MapFile}s, or a single {@link MapFile}.
+	 * @param minKey
+	 *            The minimum key (inclusive). <code>null</code> for no lower
+	 *            bound.
+	 * @param maxKey
+	 *            The maximum key (exclusive). <code>null</code> for no upper
+	 *            bound.
+	 * @return The scan. It must be closed.
+	 * @throws IOException
+	 *             if the {@link MapFile}s cannot be listed.
+	 */
+	public Scan<K, V> scan(final Path directory, final K minKey, final K maxKey)
+			throws IOException {
+		return scan(directory, KeyRanges.of(minKey, maxKey));
+	}
+
+	/**
+	 * Scan multiple key ranges.
+	 *
+	 * @param directory
+	 *            A directory of {@link MapFile}s, or a single {@link MapFile}.
+	 * @param ranges
+	 *            The key ranges.
+	 * @return The scan. It must be closed.
+	 * @throws IOException
+	 *             if the {@link MapFile}s cannot be listed.
+	 */
+	public Scan<K, V> scan(final Path directory,
+			final Collection<KeyRange<K>> ranges) throws IOException {
+		return scan(directory, KeyRanges.normalize(ranges, null, null));
+	}
+
+	private Scan<K, V> scan(final Path directory, final KeyRanges<K> ranges)
+			throws IOException {
+		final FileSystem fs = directory.getFileSystem(_conf);
+		final List<FileStatus> dataFiles = MapFileInputFormat
+				.getMapFileStatuses(Arrays.asList(fs.listStatus(directory)),
+						_conf);
+		final Scan<K, V> scan = new Scan<>();
+		try {
+			for (final FileStatus dataFile : dataFiles) {
+				if (!ranges.isUnbounded()
+						&& !MapFileInputFormat.<K> readIndex(dataFile.getPath(),
+								_conf).mayContain(0, dataFile.getLen(), ranges)) {
+					continue;
+				}
+				scan.add(new Source(dataFile, ranges));
+			}
+			scan.start();
+		} catch (final IOException e) {
+			scan.close();
+			throw e;
+		}
+		return scan;
+	}
+
+	/* Records read from a MapFile at once */
+	private final class Batch {
+
+		private final List<K> _keys = new ArrayList<>(BATCH_SIZE);
+		private final List<V> _values = new ArrayList<>(BATCH_SIZE);
+	}
+
+	/* The records of one MapFile, read in batches */
+	private final class Source {
+
+		private final MapFileRecordReader<K, V> _reader;
+		private final FileSplit _split;
+		private final TaskAttemptContext _context;
+		private boolean _initialized;
+		/* The batch being read, null if there is none */
+		private Future<Batch> _next;
+		private Batch _batch = new Batch();
+		private int _position;
+		private boolean _exhausted;
+
+		Source(final FileStatus dataFile, final KeyRanges<K> ranges) {
+			_reader = new MapFileRecordReader<>(ranges,
+					MapFileInputFormat.isRawComparison(_conf),
+					MapFileInputFormat.isBloomFiltering(_conf));
+			_split = new FileSplit(dataFile.getPath(), 0, dataFile.getLen(),
+					null);
+			_context = new TaskAttemptContextImpl(_conf, new TaskAttemptID());
+		}
+
+		/* Start reading the next batch */
+		void prefetch() {
+			_next = _executor.submit(new Callable<Batch>() {
+				@Override
+				public Batch call() throws IOException, InterruptedException {
+					if (!_initialized) {
+						_initialized = true;
+						_reader.initialize(_split, _context);
+					}
+					/* The reader reuses its keys and values, so copy them. */
+					final Batch batch = new Batch();
+					while ((batch._keys.size() < BATCH_SIZE)
+							&& _reader.nextKeyValue()) {
+						batch._keys.add(WritableUtils.clone(
+								_reader.getCurrentKey(), _conf));
+						batch._values.add(WritableUtils.clone(
+								_reader.getCurrentValue(), _conf));
+					}
+					return batch;
+				}
+			});
+		}
+
+		/*
+		 * Make sure the current record is available. The next batch is read
+		 * while this one is merged.
+		 */
+		boolean hasRecord() throws IOException {
+			if (_position < _batch._keys.size()) {
+				return true;
+			}
+			if (_exhausted) {
+				return false;
+			}
+			_batch = await(_next);
+			_next = null;
+			_position = 0;
+			if (_batch._keys.size() < BATCH_SIZE) {
+				/* A short batch is the last one. */
+				_exhausted = true;
+			} else {
+				prefetch();
+			}
+			return !_batch._keys.isEmpty();
+		}
+
+		K getKey() {
+			return _batch._keys.get(_position);
+		}
+
+		V getValue() {
+			return _batch._values.get(_position);
+		}
+
+		void advance() {
+			_position++;
+		}
+
+		void close() throws IOException {
+			/* Never close the reader while a batch is read. */
+			if (_next != null) {
+				try {
+					_next.get();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (final ExecutionException e) {
+					/* Closing anyway */
+				}
+			}
+			_reader.close();
+		}
+	}
+
+	private static <T> T await(final Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while scanning");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * A running scan. It returns the records of all {@link MapFile}s in the
+	 * key ranges in key order. The keys and values returned are copies, so
+	 * they can be kept.
+	 *
+	 * @param K
+	 *            Data type of the keys.
+	 * @param V
+	 *            Data type of the values.
+	 */
+	public static final class Scan<K extends WritableComparable<K>, V extends Writable>
+			implements Closeable {
+
+		private final List<MapFileScanner<K, V>.Source> _sources = new ArrayList<>();
+		private final PriorityQueue<MapFileScanner<K, V>.Source> _queue;
+		private K _key;
+		private V _value;
+
+		private Scan() {
+			_queue = new PriorityQueue<>(11,
+					new Comparator<MapFileScanner<K, V>.Source>() {
+						@Override
+						public int compare(
+								final MapFileScanner<K, V>.Source o1,
+								final MapFileScanner<K, V>.Source o2) {
+							return o1.getKey().compareTo(o2.getKey());
+						}
+					});
+		}
+
+		private void add(final MapFileScanner<K, V>.Source source) {
+			_sources.add(source);
+		}
+
+		private void start() throws IOException {
+			/* Read the first batches of all MapFiles in parallel */
+			for (final MapFileScanner<K, V>.Source source : _sources) {
+				source.prefetch();
+			}
+			for (final MapFileScanner<K, V>.Source source : _sources) {
+				if (source.hasRecord()) {
+					_queue.add(source);
+				}
+			}
+		}
+
+		/**
+		 * Go to the next record.
+		 *
+		 * @return <code>true</code> if there is one, <code>false</code> if
+		 *         all records were read.
+		 * @throws IOException
+		 *             if reading fails.
+		 */
+		public boolean next() throws IOException {
+			final MapFileScanner<K, V>.Source source = _queue.poll();
+			if (source == null) {
+				_key = null;
+				_value = null;
+				return false;
+			}
+			_key = source.getKey();
+			_value = source.getValue();
+			source.advance();
+			if (source.hasRecord()) {
+				_queue.add(source);
+			}
+			return true;
+		}
+
+		/**
+		 * @return The key of the current record.
+		 */
+		public K getCurrentKey() {
+			return _key;
+		}
+
+		/**
+		 * @return The value of the current record.
+		 */
+		public V getCurrentValue() {
+			return _value;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException error = null;
+			for (final MapFileScanner<K, V>.Source source : _sources) {
+				try {
+					source.close();
+				} catch (final IOException e) {
+					error = e;
+				}
+			}
+			_queue.clear();
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+}
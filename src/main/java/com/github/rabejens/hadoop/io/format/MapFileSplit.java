@@ -0,0 +1,24 @@
+package com.github.rabejens.hadoop.io.format;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * A {@link FileSplit} of the data file of a {@link MapFile} whose start and end
+ * are positions taken from the index. Unlike other splits, which start and end
+ * at the first sync mark after the given positions, this split starts and ends
+ * exactly at these positions, because they are known to be record boundaries.
+ */
+final class MapFileSplit extends FileSplit {
+
+	/* For deserialization */
+	MapFileSplit() {
+		super();
+	}
+
+	MapFileSplit(final Path file, final long start, final long length,
+			final String[] hosts) {
+		super(file, start, length, hosts);
+	}
+}
@@ -0,0 +1,62 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * An {@link InputFormat} of the old API for {@link MapFile}s, for frameworks
+ * which still require it. It plans and reads the splits with the
+ * {@link MapFileInputFormat}, so all of its settings apply, like the key
+ * ranges, pruning, index splitting, incremental mode and passthrough mode. The
+ * input paths are set with the {@link FileInputFormat} of either API.
+ *
+ * The number of splits requested is ignored, as the splits are computed like
+ * the {@link MapFileInputFormat} does.
+ *
+ * @param K
+ *            Data type of the keys. Must be a sub type of
+ *            {@link WritableComparable}.
+ * @param V
+ *            Data type of the values. Can be any sub type of {@link Writable}.
+ *
+ * @author Jens Rabe
+ */
+public class MapredMapFileInputFormat<K extends WritableComparable<K>, V extends Writable>
+		implements InputFormat<K, V> {
+
+	@Override
+	public InputSplit[] getSplits(final JobConf job, final int numSplits)
+			throws IOException {
+		final List<org.apache.hadoop.mapreduce.InputSplit> splits = new MapFileInputFormat<K, V>()
+				.getSplits(Job.getInstance(job));
+		final InputSplit[] result = new InputSplit[splits.size()];
+		for (int i = 0; i < result.length; i++) {
+			/* The MapFileInputFormat only outputs FileSplits. */
+			result[i] = new MapredMapFileSplit(
+					(org.apache.hadoop.mapreduce.lib.input.FileSplit) splits
+							.get(i));
+		}
+		return result;
+	}
+
+	@Override
+	public RecordReader<K, V> getRecordReader(final InputSplit split,
+			final JobConf job, final Reporter reporter) throws IOException {
+		reporter.setStatus(split.toString());
+		return new MapredMapFileRecordReader<>(
+				MapFileInputFormat.<K, V> newRecordReader(job),
+				(FileSplit) split, job, reporter);
+	}
+}
@@ -0,0 +1,124 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.FileSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+/**
+ * A {@link RecordReader} of the old API for the data file of a MapFile. It
+ * reads the split with a {@link MapFileRecordReader}, so it skips and filters
+ * the same way, and its statistics are counted with the {@link Reporter} of
+ * the task.
+ *
+ * @param K
+ *            Data type of the keys. Must be a sub type of
+ *            {@link WritableComparable}.
+ * @param V
+ *            Data type of the values. Can be any sub type of {@link Writable}.
+ */
+final class MapredMapFileRecordReader<K extends WritableComparable<K>, V extends Writable>
+		implements RecordReader<K, V> {
+
+	private final MapFileRecordReader<K, V> _reader;
+
+	MapredMapFileRecordReader(final MapFileRecordReader<K, V> reader,
+			final FileSplit split, final JobConf job, final Reporter reporter)
+			throws IOException {
+		_reader = reader;
+		/* Outside of a task, e.g. in tests, there is no attempt ID. */
+		final TaskAttemptID id = TaskAttemptID.forName(job
+				.get(MRJobConfig.TASK_ATTEMPT_ID));
+		final org.apache.hadoop.mapreduce.lib.input.FileSplit newSplit = (split instanceof MapredMapFileSplit) ? ((MapredMapFileSplit) split)
+				.toSplit() : new org.apache.hadoop.mapreduce.lib.input.FileSplit(
+				split.getPath(), split.getStart(), split.getLength(),
+				split.getLocations());
+		try {
+			_reader.initialize(newSplit, new TaskAttemptContextImpl(job,
+					(id == null) ? new TaskAttemptID() : id,
+					new ReporterStatusReporter(reporter)));
+		} catch (final InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while opening "
+					+ split.getPath());
+		}
+	}
+
+	@Override
+	public boolean next(final K key, final V value) throws IOException {
+		try {
+			return _reader.nextKeyValue(key, value);
+		} catch (final InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while reading");
+		}
+	}
+
+	@Override
+	public K createKey() {
+		return _reader.createKey();
+	}
+
+	@Override
+	public V createValue() {
+		return _reader.createValue();
+	}
+
+	@Override
+	public long getPos() throws IOException {
+		return _reader.getPosition();
+	}
+
+	@Override
+	public float getProgress() throws IOException {
+		return _reader.getProgress();
+	}
+
+	@Override
+	public void close() throws IOException {
+		_reader.close();
+	}
+
+	/* Counts and reports with the Reporter of the old API */
+	private static final class ReporterStatusReporter extends StatusReporter {
+
+		private final Reporter _reporter;
+
+		ReporterStatusReporter(final Reporter reporter) {
+			_reporter = reporter;
+		}
+
+		@Override
+		public Counter getCounter(final Enum<?> name) {
+			return _reporter.getCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(final String group, final String name) {
+			return _reporter.getCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+			_reporter.progress();
+		}
+
+		@Override
+		public float getProgress() {
+			return _reporter.getProgress();
+		}
+
+		@Override
+		public void setStatus(final String status) {
+			_reporter.setStatus(status);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.FileSplit;
+
+/**
+ * A {@link FileSplit} of the old API for the splits of the
+ * {@link MapFileInputFormat}. It remembers whether it was a
+ * {@link MapFileSplit}, which is read exactly from its start to its end.
+ */
+final class MapredMapFileSplit extends FileSplit {
+
+	private boolean _exact;
+
+	/* For deserialization */
+	MapredMapFileSplit() {
+		super();
+	}
+
+	MapredMapFileSplit(
+			final org.apache.hadoop.mapreduce.lib.input.FileSplit split)
+			throws IOException {
+		super(split.getPath(), split.getStart(), split.getLength(), split
+				.getLocations());
+		_exact = split instanceof MapFileSplit;
+	}
+
+	/**
+	 * @return The split of the new API, as the {@link MapFileRecordReader}
+	 *         reads it.
+	 * @throws IOException
+	 *             if the locations cannot be determined.
+	 */
+	org.apache.hadoop.mapreduce.lib.input.FileSplit toSplit()
+			throws IOException {
+		final Path path = getPath();
+		if (_exact) {
+			return new MapFileSplit(path, getStart(), getLength(),
+					getLocations());
+		}
+		return new org.apache.hadoop.mapreduce.lib.input.FileSplit(path,
+				getStart(), getLength(), getLocations());
+	}
+
+	@Override
+	public void write(final DataOutput out) throws IOException {
+		super.write(out);
+		out.writeBoolean(_exact);
+	}
+
+	@Override
+	public void readFields(final DataInput in) throws IOException {
+		super.readFields(in);
+		_exact = in.readBoolean();
+	}
+}
@@ -0,0 +1,281 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads the raw records of a block compressed {@link SequenceFile},
+ * decompressing several blocks at once. The compressed blocks are read in
+ * order, and each is decompressed by a pool of worker threads, while the
+ * records of the blocks before it are returned. So a single reader can use
+ * several cores for decompression.
+ *
+ * Like the {@link SequenceFile.Reader}, the position is the end of the current
+ * block, and seeking is only possible to the start of a block, as stored in the
+ * index of a MapFile.
+ */
+final class ParallelBlockReader implements Closeable {
+
+	/* Marks a sync, see SequenceFile */
+	private static final int SYNC_ESCAPE = -1;
+	private static final int SYNC_SIZE = 16;
+
+	private final FSDataInputStream _in;
+	private final long _end;
+	private final CompressionCodec _codec;
+	private final int _maxPending;
+	private final ExecutorService _workers;
+	private final ArrayDeque<Pending> _pending = new ArrayDeque<>();
+	/* The sync of the file, from the first block read */
+	private byte[] _sync;
+	private final byte[] _syncCheck = new byte[SYNC_SIZE];
+	/* The start of the next compressed block to read */
+	private long _next;
+	private Block _block;
+	private long _position;
+	private boolean _syncSeen;
+	private int _valueOffset;
+	private int _valueLength;
+
+	/**
+	 * @param in
+	 *            The stream of the data file. It is closed with this reader.
+	 * @param start
+	 *            The start of the first block to read.
+	 * @param end
+	 *            No block starting at or after this is read.
+	 * @param codec
+	 *            The codec of the blocks.
+	 * @param threads
+	 *            The number of worker threads.
+	 */
+	ParallelBlockReader(final FSDataInputStream in, final long start,
+			final long end, final CompressionCodec codec, final int threads) {
+		_in = in;
+		_next = start;
+		_position = start;
+		_end = end;
+		_codec = codec;
+		/* Keep all workers busy while the records of a block are returned. */
+		_maxPending = 2 * threads;
+		_workers = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setDaemon(true)
+						.setNameFormat("MapFile decompression #%d").build());
+	}
+
+	/**
+	 * Read the next key.
+	 *
+	 * @param key
+	 *            The buffer to append the serialized key to.
+	 * @return The length of the key, or -1 if there are no more records.
+	 * @throws IOException
+	 *             if reading or decompressing fails.
+	 */
+	int nextRawKey(final DataOutputBuffer key) throws IOException {
+		_syncSeen = false;
+		while ((_block == null) || (_block._remaining == 0)) {
+			if (!nextBlock()) {
+				return -1;
+			}
+		}
+		_block._remaining--;
+		final int keyLength = WritableUtils.readVInt(_block._keyLengths);
+		key.write(_block._keys.getData(), _block._keys.getPosition(),
+				keyLength);
+		_block._keys.skip(keyLength);
+		_valueLength = WritableUtils.readVInt(_block._valueLengths);
+		_valueOffset = _block._values.getPosition();
+		_block._values.skip(_valueLength);
+		return keyLength;
+	}
+
+	/**
+	 * Read the value of the current key.
+	 *
+	 * @param value
+	 *            The buffer to append the serialized value to.
+	 * @throws IOException
+	 *             if writing to the buffer fails.
+	 */
+	void nextRawValue(final DataOutputBuffer value) throws IOException {
+		value.write(_block._values.getData(), _valueOffset, _valueLength);
+	}
+
+	/**
+	 * @return The end of the current block, or the position seeked to.
+	 */
+	long getPosition() {
+		return _position;
+	}
+
+	/**
+	 * @return <code>true</code> if the last key read started a new block.
+	 */
+	boolean syncSeen() {
+		return _syncSeen;
+	}
+
+	/**
+	 * Go to the start of a block.
+	 *
+	 * @param position
+	 *            The start of the block.
+	 * @throws IOException
+	 *             if reading fails.
+	 */
+	void seek(final long position) throws IOException {
+		/* Keep the blocks being decompressed from the position on. */
+		while (!_pending.isEmpty() && (_pending.peek()._start < position)) {
+			_pending.poll()._block.cancel(false);
+		}
+		if (!_pending.isEmpty() && (_pending.peek()._start != position)) {
+			for (final Pending pending : _pending) {
+				pending._block.cancel(false);
+			}
+			_pending.clear();
+		}
+		if (_pending.isEmpty()) {
+			_next = position;
+		}
+		_block = null;
+		_position = position;
+	}
+
+	private boolean nextBlock() throws IOException {
+		fill();
+		final Pending pending = _pending.poll();
+		if (pending == null) {
+			return false;
+		}
+		try {
+			_block = pending._block.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while decompressing");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		_position = pending._end;
+		_syncSeen = true;
+		fill();
+		return true;
+	}
+
+	/* Read compressed blocks and start decompressing them */
+	private void fill() throws IOException {
+		while ((_pending.size() < _maxPending) && (_next < _end)) {
+			final long start = _next;
+			_in.seek(start);
+			if (_in.readInt() != SYNC_ESCAPE) {
+				throw new IOException("Missing sync mark at " + start);
+			}
+			_in.readFully(_syncCheck);
+			if (_sync == null) {
+				_sync = _syncCheck.clone();
+			} else if (!Arrays.equals(_sync, _syncCheck)) {
+				throw new IOException("File is corrupt at " + start);
+			}
+			final int records = WritableUtils.readVInt(_in);
+			final byte[][] buffers = new byte[4][];
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = new byte[WritableUtils.readVInt(_in)];
+				_in.readFully(buffers[i]);
+			}
+			_next = _in.getPos();
+			_pending.add(new Pending(start, _next, _workers
+					.submit(new Callable<Block>() {
+						@Override
+						public Block call() throws IOException {
+							return new Block(records, decompress(buffers[0]),
+									decompress(buffers[1]),
+									decompress(buffers[2]),
+									decompress(buffers[3]));
+						}
+					})));
+		}
+	}
+
+	private DataInputBuffer decompress(final byte[] compressed)
+			throws IOException {
+		final Decompressor decompressor = CodecPool.getDecompressor(_codec);
+		try (InputStream in = _codec.createInputStream(
+				new ByteArrayInputStream(compressed), decompressor)) {
+			final DataOutputBuffer out = new DataOutputBuffer(
+					2 * compressed.length);
+			IOUtils.copyBytes(in, out, 4096, false);
+			final DataInputBuffer buffer = new DataInputBuffer();
+			buffer.reset(out.getData(), out.getLength());
+			return buffer;
+		} finally {
+			CodecPool.returnDecompressor(decompressor);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		_workers.shutdownNow();
+		_pending.clear();
+		_in.close();
+	}
+
+	/* A compressed block being decompressed */
+	private static final class Pending {
+
+		private final long _start;
+		private final long _end;
+		private final Future<Block> _block;
+
+		Pending(final long start, final long end, final Future<Block> block) {
+			_start = start;
+			_end = end;
+			_block = block;
+		}
+	}
+
+	/* The decompressed buffers of a block */
+	private static final class Block {
+
+		private int _remaining;
+		private final DataInputBuffer _keyLengths;
+		private final DataInputBuffer _keys;
+		private final DataInputBuffer _valueLengths;
+		private final DataInputBuffer _values;
+
+		Block(final int records, final DataInputBuffer keyLengths,
+				final DataInputBuffer keys, final DataInputBuffer valueLengths,
+				final DataInputBuffer values) {
+			_remaining = records;
+			_keyLengths = keyLengths;
+			_keys = keys;
+			_valueLengths = valueLengths;
+			_values = values;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.apache.hadoop.io.SequenceFile.Reader.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile.Reader;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+
+/**
+ * The partition file of a job using the {@link TotalOrderPartitioner}, read
+ * into memory. It holds the sorted split points between the partitions, so the
+ * keys of the {@link MapFile} written by each reducer are known to lie between
+ * two split points without opening it.
+ *
+ * @param K
+ *            Data type of the keys.
+ */
+final class PartitionFile<K extends WritableComparable<K>> {
+
+	private final List<K> _splitPoints;
+
+	private PartitionFile(final List<K> splitPoints) {
+		_splitPoints = splitPoints;
+	}
+
+	/**
+	 * Read a partition file.
+	 *
+	 * @param path
+	 *            The partition file.
+	 * @param conf
+	 *            The {@link Configuration} to use.
+	 * @return The partition file.
+	 * @throws IOException
+	 *             if the partition file cannot be read.
+	 */
+	static <K extends WritableComparable<K>> PartitionFile<K> read(
+			final Path path, final Configuration conf) throws IOException {
+		final List<K> splitPoints = new ArrayList<>();
+		try (Reader r = new Reader(conf, file(path))) {
+			while (true) {
+				/*
+				 * Unchecked cast is OK because ClassCastExceptions resulting
+				 * from wrong key type in a file are desired.
+				 */
+				@SuppressWarnings("unchecked")
+				final K key = (K) r.getKeyClass().newInstance();
+				if (!r.next(key)) {
+					break;
+				}
+				splitPoints.add(key);
+			}
+			return new PartitionFile<>(splitPoints);
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new IOException("Cannot instantiate key: " + e.getMessage(),
+					e);
+		}
+	}
+
+	/**
+	 * Get the number of the partition written to a {@link MapFile}, as told by
+	 * its name, like <code>part-r-00042</code>.
+	 *
+	 * @param mapFile
+	 *            The {@link MapFile} directory.
+	 * @return The number of the partition, or -1 if the name does not tell.
+	 */
+	static int partitionOf(final Path mapFile) {
+		final String name = mapFile.getName();
+		final int dash = name.lastIndexOf('-');
+		if ((dash < 0) || !name.startsWith("part-")) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(dash + 1));
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Check if a partition may contain keys in the given ranges.
+	 *
+	 * @param partition
+	 *            The number of the partition.
+	 * @param ranges
+	 *            The key ranges.
+	 * @return <code>false</code> if the split points prove that no key in the
+	 *         partition is in the ranges, <code>true</code> otherwise.
+	 */
+	boolean mayContain(final int partition, final KeyRanges<K> ranges) {
+		if ((partition < 0) || (partition > _splitPoints.size())) {
+			/* Not a partition of this file, so nothing is known about it. */
+			return true;
+		}
+		/*
+		 * Partition i holds the keys from split point i - 1 (inclusive) to
+		 * split point i (exclusive). Using the latter as an inclusive bound
+		 * is safe.
+		 */
+		final K lower = (partition == 0) ? null : _splitPoints
+				.get(partition - 1);
+		final K upper = (partition == _splitPoints.size()) ? null
+				: _splitPoints.get(partition);
+		return ranges.intersects(lower, upper);
+	}
+}
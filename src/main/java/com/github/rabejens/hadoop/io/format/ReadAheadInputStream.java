@@ -0,0 +1,378 @@
+package com.github.rabejens.hadoop.io.format;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+
+/**
+ * An input stream which reads ahead of its position in a background thread.
+ * The file is read in chunks of a fixed size with positional reads, and up to
+ * a given number of chunks are kept ready, so reading and processing overlap
+ * on file systems with a high latency per read.
+ *
+ * Seeks within the chunks already read are served from them, other seeks
+ * restart the reading at the new position. The time spent waiting for chunks
+ * is recorded.
+ *
+ * This stream is not thread-safe, apart from its background thread.
+ */
+final class ReadAheadInputStream extends FSInputStream {
+
+	private final FSDataInputStream _in;
+	private final long _length;
+	private final int _chunkSize;
+	private final int _chunks;
+	/* Guards the free buffers and the chunks of the fetcher */
+	private final Lock _lock = new ReentrantLock();
+	/* Signalled when a buffer is freed, a chunk is read or reading stops */
+	private final Condition _changed = _lock.newCondition();
+	/* Free buffers, one more than the chunks read ahead */
+	private final Deque<byte[]> _free;
+	private Fetcher _fetcher;
+	/* The current chunk, null before the first read after a seek */
+	private Chunk _chunk;
+	private int _offset;
+	private long _pos;
+	private long _stallNanos;
+	private boolean _closed;
+
+	/**
+	 * @param in
+	 *            The stream to read from. It is closed with this stream.
+	 * @param length
+	 *            The length of the file.
+	 * @param chunkSize
+	 *            The size of the chunks read at once.
+	 * @param chunks
+	 *            The number of chunks to read ahead.
+	 */
+	ReadAheadInputStream(final FSDataInputStream in, final long length,
+			final int chunkSize, final int chunks) {
+		_in = in;
+		_length = length;
+		_chunkSize = chunkSize;
+		_chunks = chunks;
+		_free = new ArrayDeque<>(chunks + 1);
+		for (int i = 0; i <= chunks; i++) {
+			_free.add(new byte[chunkSize]);
+		}
+	}
+
+	/**
+	 * @return The time spent waiting for chunks to be read, in nanoseconds.
+	 */
+	long getStallNanos() {
+		return _stallNanos;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureData()) {
+			return -1;
+		}
+		_pos++;
+		return _chunk._data[_offset++] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+			throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureData()) {
+			return -1;
+		}
+		final int n = Math.min(len, _chunk._length - _offset);
+		System.arraycopy(_chunk._data, _offset, b, off, n);
+		_offset += n;
+		_pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (_chunk == null) ? 0 : _chunk._length - _offset;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		final long target = Math.min(_length, _pos + Math.max(0, n));
+		final long skipped = target - _pos;
+		seek(target);
+		return skipped;
+	}
+
+	/* Make sure there is something left in the current chunk */
+	private boolean ensureData() throws IOException {
+		if (_closed) {
+			throw new IOException("Stream closed");
+		}
+		while ((_chunk == null) || (_offset >= _chunk._length)) {
+			if (_pos >= _length) {
+				return false;
+			}
+			nextChunk();
+		}
+		return true;
+	}
+
+	/* Go to the next chunk, which contains the position */
+	private void nextChunk() throws IOException {
+		if (_fetcher == null) {
+			_fetcher = new Fetcher(_pos);
+		}
+		final long start = System.nanoTime();
+		final Chunk chunk;
+		_lock.lock();
+		try {
+			while (_fetcher._filled.isEmpty()) {
+				_changed.await();
+			}
+			chunk = _fetcher._filled.poll();
+			/* There is room for another chunk now. */
+			_changed.signalAll();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading ahead");
+		} finally {
+			_lock.unlock();
+		}
+		_stallNanos += System.nanoTime() - start;
+		releaseChunk();
+		if (chunk._error != null) {
+			/* The next read tries again. */
+			stopFetcher();
+			throw chunk._error;
+		}
+		_chunk = chunk;
+		_offset = (int) (_pos - chunk._start);
+	}
+
+	private void releaseChunk() {
+		if (_chunk != null) {
+			free(_chunk._data);
+			_chunk = null;
+		}
+	}
+
+	private void free(final byte[] data) {
+		_lock.lock();
+		try {
+			_free.add(data);
+			_changed.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	@Override
+	public void seek(final long pos) throws IOException {
+		if (_closed) {
+			throw new IOException("Stream closed");
+		}
+		if ((pos < 0) || (pos > _length)) {
+			throw new EOFException("Cannot seek to " + pos + ", the length is "
+					+ _length);
+		}
+		if ((_chunk != null) && (pos >= _chunk._start)
+				&& (pos < _chunk._start + _chunk._length)) {
+			/* Within the current chunk */
+			_offset = (int) (pos - _chunk._start);
+			_pos = pos;
+			return;
+		}
+		if ((_fetcher != null) && (pos > _pos)
+				&& (pos - _pos <= (long) _chunkSize * _chunks)) {
+			/*
+			 * Short forward seeks are within the chunks read ahead, so skip
+			 * to them.
+			 */
+			_pos = pos;
+			if (pos < _length) {
+				nextChunk();
+				while (_offset >= _chunk._length) {
+					nextChunk();
+				}
+			} else {
+				releaseChunk();
+			}
+			return;
+		}
+		/* Anything else restarts the reading at the new position. */
+		stopFetcher();
+		releaseChunk();
+		_pos = pos;
+	}
+
+	private void stopFetcher() throws IOException {
+		if (_fetcher == null) {
+			return;
+		}
+		/*
+		 * Wake the fetcher if it waits for a buffer or for room for a chunk,
+		 * so it only finishes the read in progress, if any. It is not
+		 * interrupted, as that would close the channel of some streams.
+		 */
+		_lock.lock();
+		try {
+			_fetcher._stopped = true;
+			_changed.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+		try {
+			_fetcher._thread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while stopping the read-ahead");
+		}
+		_lock.lock();
+		try {
+			for (final Chunk chunk : _fetcher._filled) {
+				if (chunk._data != null) {
+					_free.add(chunk._data);
+				}
+			}
+		} finally {
+			_lock.unlock();
+		}
+		_fetcher = null;
+	}
+
+	@Override
+	public long getPos() {
+		return _pos;
+	}
+
+	@Override
+	public boolean seekToNewSource(final long targetPos) throws IOException {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (_closed) {
+			return;
+		}
+		_closed = true;
+		try {
+			stopFetcher();
+		} finally {
+			_in.close();
+		}
+	}
+
+	/* A chunk of the file, or an error */
+	private static final class Chunk {
+
+		private final long _start;
+		private final byte[] _data;
+		private final int _length;
+		private final IOException _error;
+
+		Chunk(final long start, final byte[] data, final int length) {
+			_start = start;
+			_data = data;
+			_length = length;
+			_error = null;
+		}
+
+		Chunk(final IOException error) {
+			_start = -1;
+			_data = null;
+			_length = 0;
+			_error = error;
+		}
+	}
+
+	/* Reads the chunks from a position on, until stopped or at the end */
+	private final class Fetcher implements Runnable {
+
+		/* Guarded by _lock */
+		private final Deque<Chunk> _filled;
+		private final Thread _thread;
+		private long _next;
+		private volatile boolean _stopped;
+
+		Fetcher(final long start) {
+			/* Chunks always start at multiples of the chunk size. */
+			_next = start - (start % _chunkSize);
+			_filled = new ArrayDeque<>(_chunks);
+			_thread = new Thread(this, "MapFile read-ahead");
+			_thread.setDaemon(true);
+			_thread.start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (_next < _length) {
+					final byte[] data = takeFree();
+					if (data == null) {
+						return;
+					}
+					final int length = (int) Math.min(_chunkSize, _length
+							- _next);
+					Chunk chunk;
+					try {
+						_in.readFully(_next, data, 0, length);
+						chunk = new Chunk(_next, data, length);
+					} catch (final IOException e) {
+						free(data);
+						chunk = new Chunk(e);
+					}
+					_next += length;
+					if (!put(chunk) || (chunk._error != null)) {
+						return;
+					}
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/* Wait for a free buffer, null if stopped before */
+		private byte[] takeFree() throws InterruptedException {
+			_lock.lock();
+			try {
+				while (!_stopped && _free.isEmpty()) {
+					_changed.await();
+				}
+				return _stopped ? null : _free.poll();
+			} finally {
+				_lock.unlock();
+			}
+		}
+
+		/* Hand a chunk over, unless stopped before */
+		private boolean put(final Chunk chunk) throws InterruptedException {
+			_lock.lock();
+			try {
+				while (!_stopped && (_filled.size() >= _chunks)) {
+					_changed.await();
+				}
+				if (_stopped) {
+					if (chunk._data != null) {
+						_free.add(chunk._data);
+					}
+					return false;
+				}
+				_filled.add(chunk);
+				_changed.signalAll();
+				return true;
+			} finally {
+				_lock.unlock();
+			}
+		}
+	}
+}
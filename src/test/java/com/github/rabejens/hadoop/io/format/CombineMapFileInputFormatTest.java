@@ -0,0 +1,95 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.Test;
+
+/**
+ * @author jens
+ *
+ */
+public class CombineMapFileInputFormatTest {
+
+	@Test
+	public void combinesAndFilters() throws IOException, InterruptedException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				/* Ten small MapFiles with 1000 consecutive keys each */
+				for (int f = 0; f < 10; f++) {
+					try (MapFile.Writer w = new MapFile.Writer(conf, new Path(
+							testDir, "part-r-0000" + f),
+							MapFile.Writer.keyClass(IntWritable.class),
+							MapFile.Writer.valueClass(Text.class))) {
+						for (int i = f * 1000; i < (f + 1) * 1000; i++) {
+							w.append(new IntWritable(i), new Text("Value " + i));
+						}
+					}
+				}
+				final Job job = Job.getInstance(conf);
+				final Configuration jobConf = job.getConfiguration();
+				FileInputFormat.setInputPaths(job, testDir);
+				MapFileInputFormat.setMinKey(new IntWritable(2500), jobConf);
+				MapFileInputFormat.setMaxKey(new IntWritable(4500), jobConf);
+				final CombineMapFileInputFormat<IntWritable, Text> format = new CombineMapFileInputFormat<>();
+				final List<InputSplit> splits = format.getSplits(job);
+				assertThat("All MapFiles are combined into one split",
+						splits.size(), is(1));
+				/*
+				 * The index bounds the first key of each MapFile, but not the
+				 * last one, so only the MapFiles above the range are dropped.
+				 */
+				assertThat("The MapFiles above the key range are dropped",
+						((CombineFileSplit) splits.get(0)).getNumPaths(), is(5));
+				final TaskAttemptContext context = mock(TaskAttemptContext.class);
+				when(context.getConfiguration()).thenReturn(jobConf);
+				/* The order of the MapFiles within the split is not defined. */
+				final Set<Integer> keys = new HashSet<>();
+				try (RecordReader<IntWritable, Text> r = format
+						.createRecordReader(splits.get(0), context)) {
+					r.initialize(splits.get(0), context);
+					while (r.nextKeyValue()) {
+						final int key = r.getCurrentKey().get();
+						assertThat("The key is in the range",
+								(key >= 2500) && (key < 4500), is(true));
+						assertThat("The value belongs to the key", r
+								.getCurrentValue().toString(), is("Value "
+								+ key));
+						keys.add(key);
+					}
+				}
+				assertThat("All keys in the range were read", keys.size(),
+						is(2000));
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+}
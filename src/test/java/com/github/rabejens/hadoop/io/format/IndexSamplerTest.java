@@ -0,0 +1,134 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.apache.hadoop.io.SequenceFile.Reader.file;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.junit.Test;
+
+/**
+ * @author jens
+ *
+ */
+public class IndexSamplerTest {
+
+	@Test
+	public void writesBalancedPartitions() throws IOException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				/* Ten MapFiles with 1000 consecutive keys each */
+				for (int f = 0; f < 10; f++) {
+					try (MapFile.Writer w = new MapFile.Writer(conf, new Path(
+							testDir, "part-r-0000" + f),
+							MapFile.Writer.keyClass(IntWritable.class),
+							MapFile.Writer.valueClass(Text.class))) {
+						for (int i = f * 1000; i < (f + 1) * 1000; i++) {
+							w.append(new IntWritable(i), new Text("Value " + i));
+						}
+					}
+				}
+				final Job job = Job.getInstance(conf);
+				final Configuration jobConf = job.getConfiguration();
+				FileInputFormat.setInputPaths(job, testDir);
+				MapFileInputFormat.setMinKey(new IntWritable(2000), jobConf);
+				MapFileInputFormat.setMaxKey(new IntWritable(8000), jobConf);
+				job.setNumReduceTasks(4);
+				job.setMapOutputKeyClass(IntWritable.class);
+				final Path partitionFile = new Path(testDir, "_partition.lst");
+				TotalOrderPartitioner.setPartitionFile(jobConf, partitionFile);
+				IndexSampler.writePartitionFile(job);
+				final List<Integer> boundaries = new ArrayList<>();
+				try (SequenceFile.Reader r = new SequenceFile.Reader(jobConf,
+						file(partitionFile))) {
+					final IntWritable key = new IntWritable();
+					while (r.next(key, NullWritable.get())) {
+						boundaries.add(key.get());
+					}
+				}
+				assertThat("There is a boundary between each two partitions",
+						boundaries.size(), is(3));
+				/*
+				 * Each partition gets about 1500 keys of the range, within
+				 * the index interval.
+				 */
+				for (int i = 0; i < boundaries.size(); i++) {
+					final int expected = 2000 + (i + 1) * 1500;
+					assertThat(String.format("Boundary %d is balanced", i),
+							Math.abs(boundaries.get(i) - expected) <= 256,
+							is(true));
+				}
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void onlyUsesKeysInTheRangesAsBoundaries() throws IOException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				try (MapFile.Writer w = new MapFile.Writer(conf, new Path(
+						testDir, "part-r-00000"),
+						MapFile.Writer.keyClass(IntWritable.class),
+						MapFile.Writer.valueClass(Text.class))) {
+					for (int i = 0; i < 10000; i++) {
+						w.append(new IntWritable(i), new Text("Value " + i));
+					}
+				}
+				final Job job = Job.getInstance(conf);
+				final Configuration jobConf = job.getConfiguration();
+				FileInputFormat.setInputPaths(job, testDir);
+				/*
+				 * Only the index keys 2048 and 2176 are in the range, so
+				 * there cannot be more than three partitions.
+				 */
+				MapFileInputFormat.setMinKey(new IntWritable(2000), jobConf);
+				MapFileInputFormat.setMaxKey(new IntWritable(2300), jobConf);
+				job.setNumReduceTasks(4);
+				job.setMapOutputKeyClass(IntWritable.class);
+				TotalOrderPartitioner.setPartitionFile(jobConf, new Path(
+						testDir, "_partition.lst"));
+				try {
+					IndexSampler.writePartitionFile(job);
+					fail("Keys outside the range were used as boundaries");
+				} catch (final IOException e) {
+					assertThat("The partitions are too many", e.getMessage(),
+							is("The indexes only allow 3 partitions instead of 4"));
+				}
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.junit.Test;
+
+public class KeyRangesTest {
+
+	private static IntWritable i(final int i) {
+		return new IntWritable(i);
+	}
+
+	private static KeyRanges<IntWritable> sample() {
+		final List<KeyRange<IntWritable>> ranges = Arrays.asList(
+				new KeyRange<>(i(50), i(60)), new KeyRange<>(i(10), i(20)),
+				new KeyRange<>(i(15), i(30)), KeyRange.point(i(30)),
+				KeyRange.point(i(40)), new KeyRange<>(i(55), i(58)),
+				new KeyRange<>(i(100), null));
+		return KeyRanges.normalize(ranges, null, null);
+	}
+
+	@Test
+	public void mergesOverlappingRanges() {
+		assertThat("Overlapping and adjacent ranges are merged", sample()
+				.toString(), is("[[10, 30], {40}, [50, 60), [100, )]"));
+	}
+
+	@Test
+	public void restrictsToMinAndMax() {
+		assertThat("Ranges are restricted to [minKey, maxKey)", sample()
+				.restrict(i(25), i(55)).toString(),
+				is("[[25, 30], {40}, [50, 55)]"));
+	}
+
+	@Test
+	public void contains() {
+		final KeyRanges<IntWritable> ranges = sample();
+		assertThat("9 is not contained", ranges.contains(i(9)), is(false));
+		assertThat("10 is contained", ranges.contains(i(10)), is(true));
+		assertThat("30 is contained", ranges.contains(i(30)), is(true));
+		assertThat("31 is not contained", ranges.contains(i(31)), is(false));
+		assertThat("40 is contained", ranges.contains(i(40)), is(true));
+		assertThat("60 is not contained", ranges.contains(i(60)), is(false));
+		assertThat("1000 is contained", ranges.contains(i(1000)), is(true));
+	}
+
+	@Test
+	public void intersects() {
+		final KeyRanges<IntWritable> ranges = sample();
+		assertThat("[0, 9] does not intersect", ranges.intersects(i(0), i(9)),
+				is(false));
+		assertThat("[0, 10] intersects", ranges.intersects(i(0), i(10)),
+				is(true));
+		assertThat("[31, 39] does not intersect",
+				ranges.intersects(i(31), i(39)), is(false));
+		assertThat("[60, 99] does not intersect",
+				ranges.intersects(i(60), i(99)), is(false));
+		assertThat("[60, ...] intersects", ranges.intersects(i(60), null),
+				is(true));
+		assertThat("[..., 5] does not intersect",
+				ranges.intersects(null, i(5)), is(false));
+	}
+
+	@Test
+	public void serializes() throws IOException {
+		final DataOutputBuffer out = new DataOutputBuffer();
+		sample().write(out);
+		final DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		assertThat("Ranges survive serialization", KeyRanges.read(in)
+				.toString(), is(sample().toString()));
+	}
+}
@@ -1,29 +1,44 @@
 package com.github.rabejens.hadoop.io.format;
 
+import static com.github.rabejens.hadoop.io.format.MapFileInputFormat.getKeyRanges;
 import static com.github.rabejens.hadoop.io.format.MapFileInputFormat.getMaxKey;
 import static com.github.rabejens.hadoop.io.format.MapFileInputFormat.getMinKey;
+import static com.github.rabejens.hadoop.io.format.MapFileInputFormat.setKeyRanges;
 import static com.github.rabejens.hadoop.io.format.MapFileInputFormat.setMaxKey;
 import static com.github.rabejens.hadoop.io.format.MapFileInputFormat.setMinKey;
 import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.BloomMapFile;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.junit.Test;
 
 /**
@@ -68,9 +83,52 @@ public class MapFileInputFormatTest {
 				k.get(), is(42));
 	}
 
+	@Test
+	public void setThenGetKeyRanges() throws IOException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path rangesFile = null;
+			try {
+				do {
+					rangesFile = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(rangesFile));
+				final List<KeyRange<IntWritable>> ranges = asList(
+						new KeyRange<>(new IntWritable(1), new IntWritable(5)),
+						KeyRange.point(new IntWritable(42)), new KeyRange<>(
+								new IntWritable(100), null));
+				setKeyRanges(ranges, rangesFile, conf);
+				setMaxKey(new IntWritable(200), conf);
+				final KeyRanges<IntWritable> read = getKeyRanges(conf);
+				assertThat(
+						"Setting and then getting key ranges returns them restricted to the max key",
+						read.toString(), is("[[1, 5), {42}, [100, 200)]"));
+			} finally {
+				if ((rangesFile != null) && fs.exists(rangesFile)) {
+					fs.delete(rangesFile, false);
+				}
+			}
+		}
+	}
+
 	@Test
 	public void getStatuses() throws IOException {
+		checkStatuses(false, 1);
+	}
+
+	@Test
+	public void getStatusesInParallel() throws IOException {
+		checkStatuses(false, 4);
+	}
+
+	@Test
+	public void getStatusesFromRecursiveListing() throws IOException {
+		checkStatuses(true, 4);
+	}
+
+	private static void checkStatuses(final boolean recursive,
+			final int numThreads) throws IOException {
 		final Configuration conf = new Configuration();
+		conf.setInt(FileInputFormat.LIST_STATUS_NUM_THREADS, numThreads);
 		try (FileSystem fs = FileSystem.get(conf)) {
 			Path testDir = null;
 			try {
@@ -103,8 +161,18 @@ public class MapFileInputFormatTest {
 						w.append(new IntWritable(i), new Text("foo"));
 					}
 				}
+				final List<FileStatus> listing = new ArrayList<>();
+				if (recursive) {
+					final RemoteIterator<LocatedFileStatus> files = fs
+							.listFiles(inDir, true);
+					while (files.hasNext()) {
+						listing.add(files.next());
+					}
+				} else {
+					listing.addAll(asList(fs.listStatus(inDir)));
+				}
 				final List<FileStatus> statuses = MapFileInputFormat
-						.getMapFileStatuses(asList(fs.listStatus(inDir)), conf);
+						.getMapFileStatuses(listing, conf);
 				assertThat("There are three map files", statuses.size(), is(3));
 				final Set<String> names = new HashSet<>();
 				for (final FileStatus s : statuses) {
@@ -122,4 +190,408 @@ public class MapFileInputFormatTest {
 			}
 		}
 	}
+
+	@Test
+	public void pruneMapFilesByPartitionFile() throws IOException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				final Path inDir = new Path(testDir, "in");
+				/* Four partitions of 1000 keys each */
+				for (int p = 0; p < 4; p++) {
+					try (MapFile.Writer w = new MapFile.Writer(conf, new Path(
+							inDir, "part-r-0000" + p),
+							MapFile.Writer.keyClass(IntWritable.class),
+							MapFile.Writer.valueClass(Text.class))) {
+						for (int i = p * 1000; i < (p + 1) * 1000; i++) {
+							w.append(new IntWritable(i), new Text("foo"));
+						}
+					}
+				}
+				final Path partitionFile = new Path(testDir, "_partition.lst");
+				try (SequenceFile.Writer w = SequenceFile.createWriter(conf,
+						SequenceFile.Writer.file(partitionFile),
+						SequenceFile.Writer.keyClass(IntWritable.class),
+						SequenceFile.Writer.valueClass(NullWritable.class))) {
+					for (int p = 1; p < 4; p++) {
+						w.append(new IntWritable(p * 1000), NullWritable.get());
+					}
+				}
+				MapFileInputFormat.setPartitionFile(partitionFile, conf);
+				setMinKey(new IntWritable(1500), conf);
+				setMaxKey(new IntWritable(2500), conf);
+				final List<FileStatus> statuses = MapFileInputFormat
+						.getMapFileStatuses(asList(fs.listStatus(inDir)), conf);
+				final Set<String> names = new HashSet<>();
+				for (final FileStatus s : statuses) {
+					names.add(s.getPath().getParent().getName());
+				}
+				assertThat(
+						"Only the partitions in the key range are left",
+						names,
+						is((Set<String>) new HashSet<>(asList("part-r-00001",
+								"part-r-00002"))));
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void readOnlyNewMapFilesSinceCheckpoint() throws IOException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				final Path inDir = new Path(testDir, "in");
+				writeMapFile(new Path(inDir, "part-r-00000"), conf);
+				writeMapFile(new Path(inDir, "part-r-00001"), conf);
+				MapFileInputFormat.setCheckpoint(new Path(testDir,
+						"_checkpoint"), conf);
+				assertThat("The first job reads all MapFiles",
+						checkpointedNames(inDir, fs, conf),
+						is((Set<String>) new HashSet<>(asList("part-r-00000",
+								"part-r-00001"))));
+				assertThat("Without a commit, they are read again",
+						checkpointedNames(inDir, fs, conf).size(), is(2));
+				MapFileInputFormat.commitCheckpoint(conf);
+				assertThat("After a commit, they are not read again",
+						checkpointedNames(inDir, fs, conf).size(), is(0));
+				MapFileInputFormat.commitCheckpoint(conf);
+				writeMapFile(new Path(inDir, "part-r-00002"), conf);
+				assertThat("Only the new MapFile is read",
+						checkpointedNames(inDir, fs, conf),
+						is((Set<String>) new HashSet<>(asList("part-r-00002"))));
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+
+	private static void writeMapFile(final Path mapFile,
+			final Configuration conf) throws IOException {
+		try (MapFile.Writer w = new MapFile.Writer(conf, mapFile,
+				MapFile.Writer.keyClass(IntWritable.class),
+				MapFile.Writer.valueClass(Text.class))) {
+			for (int i = 0; i < 100; i++) {
+				w.append(new IntWritable(i), new Text("foo"));
+			}
+		}
+	}
+
+	private static Set<String> checkpointedNames(final Path inDir,
+			final FileSystem fs, final Configuration conf) throws IOException {
+		final List<FileStatus> statuses = MapFileInputFormat.applyCheckpoint(
+				MapFileInputFormat.getMapFileStatuses(
+						asList(fs.listStatus(inDir)), conf), conf);
+		final Set<String> names = new HashSet<>();
+		for (final FileStatus s : statuses) {
+			names.add(s.getPath().getParent().getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void pruneSplitsWithLimit() throws IOException,
+			InterruptedException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				final Path mapFile = new Path(testDir, "map");
+				try (MapFile.Writer w = new MapFile.Writer(conf, mapFile,
+						MapFile.Writer.keyClass(IntWritable.class),
+						MapFile.Writer.valueClass(Text.class))) {
+					for (int i = 0; i < 65536; i++) {
+						w.append(new IntWritable(i), new Text("Value " + i));
+					}
+				}
+				final Path dataFile = new Path(mapFile, MapFile.DATA_FILE_NAME);
+				final long len = fs.getFileStatus(dataFile).getLen();
+				final List<InputSplit> splits = new ArrayList<>();
+				for (long start = 0; start < len; start += 16384) {
+					splits.add(new FileSplit(dataFile, start, Math.min(
+							16384, len - start), null));
+				}
+				setMinKey(new IntWritable(20000), conf);
+				MapFileInputFormat.setLimit(1000, conf);
+				final List<InputSplit> relevant = MapFileInputFormat
+						.pruneSplits(splits,
+								MapFileInputFormat.<IntWritable> getKeyRanges(conf),
+								conf);
+				assertThat("Only the leading splits are left",
+						relevant.size() < 5, is(true));
+				final TaskAttemptContext context = mock(TaskAttemptContext.class);
+				when(context.getConfiguration()).thenReturn(conf);
+				final Set<Integer> keys = new HashSet<>();
+				for (final InputSplit split : relevant) {
+					try (RecordReader<IntWritable, Text> r = new MapFileInputFormat<IntWritable, Text>()
+							.createRecordReader(split, context)) {
+						r.initialize(split, context);
+						int count = 0;
+						while (r.nextKeyValue()) {
+							keys.add(r.getCurrentKey().get());
+							count++;
+						}
+						assertThat("Each reader stops at the limit",
+								count <= 1000, is(true));
+					}
+				}
+				for (int i = 20000; i < 21000; i++) {
+					assertThat("The first keys of the range are read",
+							keys.contains(i), is(true));
+				}
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void lookUpKeysInBloomMapFile() throws IOException,
+			InterruptedException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				final Path inDir = new Path(testDir, "in");
+				/* Only even keys */
+				try (BloomMapFile.Writer w = new BloomMapFile.Writer(conf,
+						new Path(inDir, "bloom"),
+						MapFile.Writer.keyClass(IntWritable.class),
+						MapFile.Writer.valueClass(Text.class))) {
+					for (int i = 0; i < 20000; i += 2) {
+						w.append(new IntWritable(i), new Text("Value " + i));
+					}
+				}
+				final List<FileStatus> statuses = MapFileInputFormat
+						.getMapFileStatuses(asList(fs.listStatus(inDir)), conf);
+				assertThat("The BloomMapFile is accepted", statuses.size(),
+						is(1));
+				final List<KeyRange<IntWritable>> ranges = new ArrayList<>();
+				for (final int key : new int[] { 10, 11, 5001, 5002, 19999 }) {
+					ranges.add(KeyRange.point(new IntWritable(key)));
+				}
+				setKeyRanges(ranges, new Path(testDir, "ranges"), conf);
+				MapFileInputFormat.setBloomFiltering(true, conf);
+				final TaskAttemptContext context = mock(TaskAttemptContext.class);
+				when(context.getConfiguration()).thenReturn(conf);
+				final FileStatus dataFile = statuses.get(0);
+				final List<Integer> keys = new ArrayList<>();
+				try (RecordReader<IntWritable, Text> r = new MapFileInputFormat<IntWritable, Text>()
+						.createRecordReader(null, context)) {
+					r.initialize(new FileSplit(dataFile.getPath(), 0, dataFile
+							.getLen(), null), context);
+					while (r.nextKeyValue()) {
+						keys.add(r.getCurrentKey().get());
+					}
+				}
+				assertThat("Only the keys in the file are found", keys,
+						is(asList(10, 5002)));
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void pruneSplitsWithManifest() throws IOException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				final Path mapFile = new Path(testDir, "map");
+				try (MapFile.Writer w = new MapFile.Writer(conf, mapFile,
+						MapFile.Writer.keyClass(IntWritable.class),
+						MapFile.Writer.valueClass(Text.class))) {
+					for (int i = 0; i < 1000; i++) {
+						w.append(new IntWritable(i), new Text("Value " + i));
+					}
+				}
+				MapFileInputFormat.setManifestCaching(true, conf);
+				final Path dataFile = new Path(mapFile, MapFile.DATA_FILE_NAME);
+				final List<InputSplit> splits = new ArrayList<>();
+				splits.add(new FileSplit(dataFile, 0, fs.getFileStatus(
+						dataFile).getLen(), null));
+				final KeyRanges<IntWritable> ranges = KeyRanges.of(
+						new IntWritable(2000), new IntWritable(3000));
+				assertThat("The last key in the manifest prunes the split",
+						MapFileInputFormat.pruneSplits(splits, ranges, conf)
+								.size(), is(0));
+				final Path manifest = new Path(testDir, ".map.manifest");
+				assertThat("The manifest is written next to the MapFile",
+						fs.exists(manifest), is(true));
+				/* A manifest with another index skip is written anew. */
+				MapFileInputFormat.setIndexSkip(3, conf);
+				assertThat("The split is still pruned", MapFileInputFormat
+						.pruneSplits(splits, ranges, conf).size(), is(0));
+				try (FSDataInputStream in = fs.open(manifest)) {
+					in.readInt();
+					in.readLong();
+					in.readLong();
+					assertThat("The manifest has the new index skip",
+							in.readInt(), is(3));
+				}
+				/* The manifest is used, so the index is not needed any more. */
+				fs.delete(new Path(mapFile, MapFile.INDEX_FILE_NAME), false);
+				assertThat("The manifest is reused", MapFileInputFormat
+						.pruneSplits(splits, ranges, conf).size(), is(0));
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void pruneSplitsAfterTheRanges() throws IOException,
+			InterruptedException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				final Path mapFile = new Path(testDir, "map");
+				try (MapFile.Writer w = new MapFile.Writer(conf, mapFile,
+						MapFile.Writer.keyClass(IntWritable.class),
+						MapFile.Writer.valueClass(Text.class))) {
+					for (int i = 0; i < 65536; i++) {
+						w.append(new IntWritable(i), new Text("Value " + i));
+					}
+				}
+				final Path dataFile = new Path(mapFile, MapFile.DATA_FILE_NAME);
+				final long len = fs.getFileStatus(dataFile).getLen();
+				final List<InputSplit> splits = new ArrayList<>();
+				for (long start = 0; start < len; start += 4096) {
+					splits.add(new FileSplit(dataFile, start, Math.min(4096,
+							len - start), null));
+				}
+				final IntWritable from = new IntWritable(20000);
+				final IntWritable to = new IntWritable(30000);
+				final MapFileIndex<IntWritable> index = MapFileIndex.read(
+						mapFile, conf);
+				/* The first index entry past the range */
+				final long end = index
+						.getPosition(index.lastLessThan(to) + 1);
+				final List<InputSplit> relevant = MapFileInputFormat
+						.pruneSplits(splits, KeyRanges.of(from, to), conf);
+				assertThat("Some splits are relevant", relevant.isEmpty(),
+						is(false));
+				for (final InputSplit split : relevant) {
+					assertThat("No split after the range is relevant",
+							((FileSplit) split).getStart() < end, is(true));
+				}
+				/* A reader stopping at the end of the range is done. */
+				final TaskAttemptContext context = mock(TaskAttemptContext.class);
+				when(context.getConfiguration()).thenReturn(conf);
+				try (MapFileRecordReader<IntWritable, Text> r = new MapFileRecordReader<>(
+						from, to)) {
+					r.initialize(new FileSplit(dataFile, 0, len, null),
+							context);
+					int count = 0;
+					while (r.nextKeyValue()) {
+						count++;
+					}
+					assertThat("All keys in the range are read", count,
+							is(10000));
+					assertThat("The progress is complete at the range end",
+							r.getProgress(), is(1.0f));
+				}
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void pruneSplits() throws IOException, InterruptedException {
+		checkPruneSplits(0);
+	}
+
+	@Test
+	public void pruneSplitsWithIndexSkip() throws IOException,
+			InterruptedException {
+		checkPruneSplits(3);
+	}
+
+	private static void checkPruneSplits(final int skip) throws IOException,
+			InterruptedException {
+		final Configuration conf = new Configuration();
+		MapFileInputFormat.setIndexSkip(skip, conf);
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				final Path mapFile = new Path(testDir, "map");
+				try (MapFile.Writer w = new MapFile.Writer(conf, mapFile,
+						MapFile.Writer.keyClass(IntWritable.class),
+						MapFile.Writer.valueClass(Text.class))) {
+					for (int i = 0; i < 65536; i++) {
+						w.append(new IntWritable(i), new Text("Value " + i));
+					}
+				}
+				final Path dataFile = new Path(mapFile, MapFile.DATA_FILE_NAME);
+				final long len = fs.getFileStatus(dataFile).getLen();
+				final List<InputSplit> splits = new ArrayList<>();
+				for (long start = 0; start < len; start += 16384) {
+					splits.add(new FileSplit(dataFile, start, Math.min(
+							16384, len - start), null));
+				}
+				final IntWritable from = new IntWritable(20000);
+				final IntWritable to = new IntWritable(30000);
+				final List<InputSplit> relevant = MapFileInputFormat
+						.pruneSplits(splits, KeyRanges.of(from, to), conf);
+				assertThat("Some splits were pruned",
+						relevant.size() < (splits.size() / 2), is(true));
+				final TaskAttemptContext context = mock(TaskAttemptContext.class);
+				when(context.getConfiguration()).thenReturn(conf);
+				for (final InputSplit split : splits) {
+					if (relevant.contains(split)) {
+						continue;
+					}
+					try (MapFileRecordReader<IntWritable, Text> r = new MapFileRecordReader<>(
+							from, to)) {
+						r.initialize(split, context);
+						assertThat("A pruned split has no relevant records",
+								r.nextKeyValue(), is(false));
+					}
+				}
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,132 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.Test;
+
+/**
+ * @author jens
+ *
+ */
+public class MapFileJoinInputFormatTest {
+
+	@Test
+	public void innerJoin() throws IOException, InterruptedException {
+		checkJoin(false);
+	}
+
+	@Test
+	public void outerJoin() throws IOException, InterruptedException {
+		checkJoin(true);
+	}
+
+	private static void checkJoin(final boolean outer) throws IOException,
+			InterruptedException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				/*
+				 * The left input has multiples of 2, split over two MapFiles,
+				 * the right one has multiples of 3.
+				 */
+				final Path left = new Path(testDir, "left");
+				final Path right = new Path(testDir, "right");
+				writeMapFile(conf, new Path(left, "part-r-00000"), 0, 50000, 2);
+				writeMapFile(conf, new Path(left, "part-r-00001"), 50000,
+						100000, 2);
+				writeMapFile(conf, new Path(right, "part-r-00000"), 0, 100000,
+						3);
+				final Job job = Job.getInstance(conf);
+				final Configuration jobConf = job.getConfiguration();
+				MapFileJoinInputFormat.setInputs(jobConf, left, right);
+				MapFileJoinInputFormat.setOuterJoin(outer, jobConf);
+				MapFileJoinInputFormat.setSplitSize(65536, jobConf);
+				MapFileInputFormat.setMinKey(new IntWritable(1000), jobConf);
+				MapFileInputFormat.setMaxKey(new IntWritable(90000), jobConf);
+				final MapFileJoinInputFormat<IntWritable> format = new MapFileJoinInputFormat<>();
+				final List<InputSplit> splits = format.getSplits(job);
+				assertThat("There are several splits", splits.size() > 1,
+						is(true));
+				final TaskAttemptContext context = mock(TaskAttemptContext.class);
+				when(context.getConfiguration()).thenReturn(jobConf);
+				int expected = 1000;
+				for (final InputSplit split : splits) {
+					try (RecordReader<IntWritable, JoinedValues> r = format
+							.createRecordReader(split, context)) {
+						r.initialize(split, context);
+						while (r.nextKeyValue()) {
+							while (!isJoined(expected, outer)) {
+								expected++;
+							}
+							final int key = r.getCurrentKey().get();
+							assertThat("The keys are joined in order", key,
+									is(expected));
+							final JoinedValues values = r.getCurrentValue();
+							checkValue(values, 0, key, (key % 2) == 0);
+							checkValue(values, 1, key, (key % 3) == 0);
+							expected++;
+						}
+					}
+				}
+				assertThat("All keys in the range were joined", expected,
+						is(outer ? 89999 : 89995));
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+
+	private static boolean isJoined(final int key, final boolean outer) {
+		final boolean left = (key % 2) == 0;
+		final boolean right = (key % 3) == 0;
+		return outer ? (left || right) : (left && right);
+	}
+
+	private static void checkValue(final JoinedValues values, final int i,
+			final int key, final boolean present) {
+		if (present) {
+			assertThat("The value belongs to the key", values.get(i)
+					.toString(), is("Value " + key));
+		} else {
+			assertThat("There is no value", values.get(i), nullValue());
+		}
+	}
+
+	private static void writeMapFile(final Configuration conf,
+			final Path mapFile, final int from, final int to, final int step)
+			throws IOException {
+		try (MapFile.Writer w = new MapFile.Writer(conf, mapFile,
+				MapFile.Writer.keyClass(IntWritable.class),
+				MapFile.Writer.valueClass(Text.class))) {
+			for (int i = from; i < to; i++) {
+				if ((i % step) == 0) {
+					w.append(new IntWritable(i), new Text("Value " + i));
+				}
+			}
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package com.github.rabejens.hadoop.io.format;
 
 import static org.apache.hadoop.io.MapFile.DATA_FILE_NAME;
+import static org.apache.hadoop.io.SequenceFile.CompressionType.BLOCK;
+import static org.apache.hadoop.io.MapFile.Writer.compression;
 import static org.apache.hadoop.io.MapFile.Writer.keyClass;
 import static org.apache.hadoop.io.MapFile.Writer.valueClass;
 import static org.hamcrest.CoreMatchers.is;
@@ -21,11 +23,23 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.MapFile.Writer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.StatusReporter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -47,23 +61,32 @@ public class MapFileRecordReaderTest {
 	private static Path _testDir;
 	private static Path _inDir;
 	private static List<FileSplit> _splits;
+	private static List<FileSplit> _coarseSplits;
+	private static List<FileSplit> _blockSplits;
+	private static List<FileSplit> _largeSplits;
 
 	private final IntWritable _from;
 	private final IntWritable _to;
+	private final boolean _raw;
 
 	@Mock
 	private TaskAttemptContext _context;
 
-	public MapFileRecordReaderTest(final Integer from, final Integer to) {
+	public MapFileRecordReaderTest(final Integer from, final Integer to,
+			final Boolean raw) {
 		_from = (from == null) ? null : new IntWritable(from);
 		_to = (to == null) ? null : new IntWritable(to);
+		_raw = raw;
 	}
 
 	@Parameters
 	public static List<Object[]> params() {
-		return Arrays.asList(new Object[] { null, 1338 }, new Object[] { 1337,
-				31338 }, new Object[] { 31337, null }, new Object[] { null,
-				null });
+		return Arrays.asList(new Object[] { null, 1338, false }, new Object[] {
+				1337, 31338, false }, new Object[] { 31337, null, false },
+				new Object[] { null, null, false }, new Object[] { null, 1338,
+						true }, new Object[] { 1337, 31338, true },
+				new Object[] { 31337, null, true }, new Object[] { null, null,
+						true });
 	}
 
 	@BeforeClass
@@ -75,24 +98,72 @@ public class MapFileRecordReaderTest {
 		} while (_fs.exists(_testDir));
 		_inDir = new Path(_testDir, "in");
 		_fs.mkdirs(_inDir);
-		final Path sampleFile = new Path(_inDir, "sample");
-		try (Writer w = new Writer(_conf, sampleFile,
+		_splits = createSample(new Path(_inDir, "sample"), _conf);
+		/*
+		 * The coarse sample has only one index entry, so the index does not
+		 * tell anything about the splits.
+		 */
+		final Configuration coarseConf = new Configuration(_conf);
+		coarseConf.setInt("io.map.index.interval", Integer.MAX_VALUE);
+		_coarseSplits = createSample(new Path(_inDir, "coarse"), coarseConf);
+		_blockSplits = createSample(new Path(_inDir, "block"), _conf,
+				compression(BLOCK));
+		_largeSplits = createLargeSample(new Path(_inDir, "large"), coarseConf);
+	}
+
+	/*
+	 * Records larger than half a split, so there is a sync mark before each
+	 * record and many splits have only the one at their start.
+	 */
+	private static List<FileSplit> createLargeSample(final Path sampleFile,
+			final Configuration conf) throws IOException {
+		final char[] padding = new char[6000];
+		Arrays.fill(padding, 'x');
+		try (Writer w = new Writer(conf, sampleFile,
 				keyClass(IntWritable.class), valueClass(Text.class))) {
 			final IntWritable k = new IntWritable();
 			final Text v = new Text();
+			for (int i = 0; i < 256; i++) {
+				k.set(i * 4096);
+				v.set("Value " + (i * 4096) + new String(padding));
+				w.append(k, v);
+			}
+		}
+		final List<FileSplit> splits = new ArrayList<>();
+		final Path dataFile = new Path(sampleFile, DATA_FILE_NAME);
+		final FileStatus dfs = _fs.getFileStatus(dataFile);
+		for (long start = 0, len = dfs.getLen(); start < len; start += 8192) {
+			final long splitLen = Math.min(start + 8192, len) - start;
+			splits.add(new FileSplit(dataFile, start, splitLen, null));
+		}
+		return splits;
+	}
+
+	private static List<FileSplit> createSample(final Path sampleFile,
+			final Configuration conf, final SequenceFile.Writer.Option... opts)
+			throws IOException {
+		final List<SequenceFile.Writer.Option> options = new ArrayList<>(
+				Arrays.asList(opts));
+		options.add(keyClass(IntWritable.class));
+		options.add(valueClass(Text.class));
+		try (Writer w = new Writer(conf, sampleFile,
+				options.toArray(new SequenceFile.Writer.Option[options.size()]))) {
+			final IntWritable k = new IntWritable();
+			final Text v = new Text();
 			for (int i = 0; i < 1048576; i++) {
 				k.set(i);
 				v.set("Value " + i);
 				w.append(k, v);
 			}
 		}
-		_splits = new ArrayList<>();
+		final List<FileSplit> splits = new ArrayList<>();
 		final Path dataFile = new Path(sampleFile, DATA_FILE_NAME);
 		final FileStatus dfs = _fs.getFileStatus(dataFile);
 		for (long start = 0, len = dfs.getLen(); start < len; start += 131072) {
 			final long splitLen = Math.min(start + 131072, len) - start;
-			_splits.add(new FileSplit(dataFile, start, splitLen, null));
+			splits.add(new FileSplit(dataFile, start, splitLen, null));
 		}
+		return splits;
 	}
 
 	@AfterClass
@@ -116,22 +187,321 @@ public class MapFileRecordReaderTest {
 
 	@Test
 	public void filtersCorrectly() throws IOException, InterruptedException {
+		checkFiltering(_splits);
+	}
+
+	@Test
+	public void filtersCorrectlyWithCoarseIndex() throws IOException,
+			InterruptedException {
+		checkFiltering(_coarseSplits);
+	}
+
+	@Test
+	public void filtersLargeRecordsWithCoarseIndex() throws IOException,
+			InterruptedException {
 		final Map<Integer, Integer> kvCounts = new HashMap<>();
-		for (final FileSplit split : _splits) {
+		for (final FileSplit split : _largeSplits) {
 			try (MapFileRecordReader<IntWritable, Text> mfrr = new MapFileRecordReader<IntWritable, Text>(
-					_from, _to)) {
+					KeyRanges.of(_from, _to), _raw)) {
 				mfrr.initialize(split, _context);
 				while (mfrr.nextKeyValue()) {
 					final int k = mfrr.getCurrentKey().get();
+					assertThat("The value belongs to the key", mfrr
+							.getCurrentValue().toString()
+							.startsWith("Value " + k + "x"), is(true));
 					final Integer count = kvCounts.get(k);
-					if (count == null) {
-						kvCounts.put(k, 1);
-					} else {
-						kvCounts.put(k, count + 1);
-					}
+					kvCounts.put(k, (count == null) ? 1 : count + 1);
+				}
+			}
+		}
+		final Integer one = Integer.valueOf(1);
+		for (int i = 0; i < 256; i++) {
+			final int k = i * 4096;
+			final Integer count = kvCounts.get(k);
+			if (((_from == null) || (k >= _from.get()))
+					&& ((_to == null) || (k < _to.get()))) {
+				assertThat(String.format("[%s, %s) - value %d appeared once",
+						_from, _to, k), count, is(one));
+			} else {
+				assertThat(String.format("[%s, %s) - value %d did not appear",
+						_from, _to, k), count, nullValue());
+			}
+		}
+	}
+
+	@Test
+	public void filtersCorrectlyWithBlockCompression() throws IOException,
+			InterruptedException {
+		checkFiltering(_blockSplits);
+	}
+
+	@Test
+	public void filtersCorrectlyWithIndexSplits() throws IOException,
+			InterruptedException {
+		checkFiltering(getIndexSplits(new Path(_inDir, "sample"), true));
+	}
+
+	@Test
+	public void filtersCorrectlyWithBlockCompressedIndexSplits()
+			throws IOException, InterruptedException {
+		/* Blocks cannot be split, so splits are at least one block long. */
+		checkFiltering(getIndexSplits(new Path(_inDir, "block"), false));
+	}
+
+	@Test
+	public void filtersCorrectlyWithReadAhead() throws IOException,
+			InterruptedException {
+		/* Small chunks, so seeks and chunk boundaries occur often. */
+		final Configuration conf = new Configuration(_conf);
+		MapFileInputFormat.setReadAhead(3, 4096, conf);
+		when(_context.getConfiguration()).thenReturn(conf);
+		checkFiltering(_splits);
+		checkFiltering(_coarseSplits);
+		checkFiltering(_blockSplits);
+	}
+
+	@Test
+	public void filtersCorrectlyWithParallelDecompression()
+			throws IOException, InterruptedException {
+		final Configuration conf = new Configuration(_conf);
+		MapFileInputFormat.setDecompressionThreads(3, conf);
+		when(_context.getConfiguration()).thenReturn(conf);
+		checkFiltering(_blockSplits);
+		checkFiltering(getIndexSplits(new Path(_inDir, "block"), false));
+	}
+
+	private List<FileSplit> getIndexSplits(final Path sampleFile,
+			final boolean checkSize) throws IOException, InterruptedException {
+		final Job job = Job.getInstance(new Configuration(_conf));
+		final Configuration conf = job.getConfiguration();
+		FileInputFormat.setInputPaths(job, sampleFile);
+		MapFileInputFormat.setMinKey(_from, conf);
+		MapFileInputFormat.setMaxKey(_to, conf);
+		MapFileInputFormat.setIndexSplitting(true, conf);
+		MapFileInputFormat.setIndexSplitSize(131072, conf);
+		final List<FileSplit> splits = new ArrayList<>();
+		long length = 0;
+		for (final InputSplit split : new MapFileInputFormat<IntWritable, Text>()
+				.getSplits(job)) {
+			assertThat("Index splits are MapFileSplits",
+					split instanceof MapFileSplit, is(true));
+			if (checkSize) {
+				assertThat("Index splits are about the requested size",
+						split.getLength() < 262144, is(true));
+			}
+			splits.add((FileSplit) split);
+			length += split.getLength();
+		}
+		if (_to != null) {
+			assertThat("Index splits only cover the key range",
+					length < _fs.getFileStatus(
+							new Path(sampleFile, DATA_FILE_NAME)).getLen() / 2,
+					is(true));
+		}
+		return splits;
+	}
+
+	@Test
+	public void readsKeysOnly() throws IOException, InterruptedException {
+		int count = 0;
+		for (final FileSplit split : _splits) {
+			try (MapFileRecordReader<IntWritable, NullWritable> mfrr = new MapFileRecordReader<>(
+					KeyRanges.of(_from, _to), _raw, false, true)) {
+				mfrr.initialize(split, _context);
+				while (mfrr.nextKeyValue()) {
+					final int k = mfrr.getCurrentKey().get();
+					assertThat("The key is in the range",
+							((_from == null) || (k >= _from.get()))
+									&& ((_to == null) || (k < _to.get())),
+							is(true));
+					assertThat("The value is null", mfrr.getCurrentValue(),
+							is(NullWritable.get()));
+					count++;
 				}
 			}
 		}
+		final int from = (_from == null) ? 0 : _from.get();
+		final int to = (_to == null) ? 1048576 : _to.get();
+		assertThat("All keys in the range were read", count, is(to - from));
+	}
+
+	@Test
+	public void passesRecordsThrough() throws IOException,
+			InterruptedException {
+		final Configuration conf = new Configuration(_conf);
+		when(_context.getConfiguration()).thenReturn(conf);
+		checkPassthrough(_splits);
+		checkPassthrough(_blockSplits);
+		assertThat("The key class is put into the configuration",
+				MapFileInputFormat.getPassthroughKeyClassName(conf),
+				is(IntWritable.class.getName()));
+		assertThat("The value class is put into the configuration",
+				MapFileInputFormat.getPassthroughValueClassName(conf),
+				is(Text.class.getName()));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void checkPassthrough(final List<FileSplit> splits)
+			throws IOException, InterruptedException {
+		final IntWritable k = new IntWritable();
+		final Text v = new Text();
+		final DataInputBuffer in = new DataInputBuffer();
+		int count = 0;
+		for (final FileSplit split : splits) {
+			/*
+			 * The key ranges are of the key class of the MapFile, but the
+			 * keys returned are BytesWritables, so use the raw type.
+			 */
+			try (MapFileRecordReader mfrr = new MapFileRecordReader(
+					KeyRanges.of(_from, _to), _raw, false, false,
+					Long.MAX_VALUE, true)) {
+				mfrr.initialize(split, _context);
+				while (mfrr.nextKeyValue()) {
+					final BytesWritable key = (BytesWritable) mfrr
+							.getCurrentKey();
+					in.reset(key.getBytes(), key.getLength());
+					k.readFields(in);
+					assertThat("The key is in the range",
+							((_from == null) || (k.get() >= _from.get()))
+									&& ((_to == null) || (k.get() < _to.get())),
+							is(true));
+					final BytesWritable value = (BytesWritable) mfrr
+							.getCurrentValue();
+					in.reset(value.getBytes(), value.getLength());
+					v.readFields(in);
+					assertThat("The value is the serialized value",
+							v.toString(), is("Value " + k.get()));
+					count++;
+				}
+			}
+		}
+		final int from = (_from == null) ? 0 : _from.get();
+		final int to = (_to == null) ? 1048576 : _to.get();
+		assertThat("All keys in the range were read", count, is(to - from));
+	}
+
+	@Test
+	public void countsStatistics() throws IOException, InterruptedException {
+		final Counters counters = new Counters();
+		final TaskAttemptContext context = new TaskAttemptContextImpl(_conf,
+				new TaskAttemptID(), new CountersStatusReporter(counters));
+		long count = 0;
+		long bytes = 0;
+		for (final FileSplit split : _splits) {
+			final MapFileRecordReader<IntWritable, Text> mfrr = new MapFileRecordReader<IntWritable, Text>(
+					KeyRanges.of(_from, _to), _raw);
+			try {
+				mfrr.initialize(split, context);
+				while (mfrr.nextKeyValue()) {
+					count++;
+					/* An int, and a text shorter than 128 bytes */
+					bytes += 4 + 1 + mfrr.getCurrentValue().getLength();
+				}
+			} finally {
+				mfrr.close();
+			}
+			/* Closing again does not count again. */
+			mfrr.close();
+		}
+		final long recordsRead = counters.findCounter(
+				MapFileCounters.RECORDS_READ).getValue();
+		assertThat("The records returned are the records read but skipped",
+				recordsRead
+						- counters.findCounter(MapFileCounters.RECORDS_SKIPPED)
+								.getValue(), is(count));
+		/*
+		 * The sample is record compressed, so the sizes of the values are
+		 * only known when keys are compared raw.
+		 */
+		assertThat("The bytes returned are counted", counters.findCounter(
+				MapFileCounters.BYTES_EMITTED).getValue(), is(_raw ? bytes
+				: 0L));
+		assertThat("At least the bytes returned are read",
+				counters.findCounter(MapFileCounters.BYTES_READ).getValue() >= bytes,
+				is(true));
+		if (_to != null) {
+			assertThat("The splits after the range are pruned", counters
+					.findCounter(MapFileCounters.SPLITS_PRUNED).getValue() > 0,
+					is(true));
+		}
+	}
+
+	/* Counts with real counters */
+	private static final class CountersStatusReporter extends StatusReporter {
+
+		private final Counters _counters;
+
+		CountersStatusReporter(final Counters counters) {
+			_counters = counters;
+		}
+
+		@Override
+		public Counter getCounter(final Enum<?> name) {
+			return _counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(final String group, final String name) {
+			return _counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() {
+		}
+
+		@Override
+		public float getProgress() {
+			return 0.0f;
+		}
+
+		@Override
+		public void setStatus(final String status) {
+		}
+	}
+
+	@Test
+	public void filtersMultipleRanges() throws IOException,
+			InterruptedException {
+		/*
+		 * Add some ranges and single keys to the tested range, some of which
+		 * overlap.
+		 */
+		final List<KeyRange<IntWritable>> ranges = new ArrayList<>();
+		ranges.add(new KeyRange<>(_from, _to));
+		ranges.add(new KeyRange<>(new IntWritable(500000), new IntWritable(
+				500100)));
+		ranges.add(new KeyRange<>(new IntWritable(500050), new IntWritable(
+				500200)));
+		ranges.add(new KeyRange<>(new IntWritable(900000), new IntWritable(
+				950000)));
+		ranges.add(KeyRange.point(new IntWritable(700000)));
+		ranges.add(KeyRange.point(new IntWritable(700001)));
+		ranges.add(KeyRange.point(new IntWritable(1000000)));
+		final KeyRanges<IntWritable> keyRanges = KeyRanges.normalize(ranges,
+				null, null);
+		final Map<Integer, Integer> kvCounts = read(_splits, keyRanges);
+		for (int i = 0; i < 1048576; i++) {
+			final Integer count = kvCounts.get(i);
+			final boolean inTestedRange = ((_from == null) || (i >= _from
+					.get())) && ((_to == null) || (i < _to.get()));
+			final boolean expected = inTestedRange
+					|| ((i >= 500000) && (i < 500200))
+					|| ((i >= 900000) && (i < 950000)) || (i == 700000)
+					|| (i == 700001) || (i == 1000000);
+			if (expected) {
+				assertThat(String.format("%s - value %d appeared once",
+						keyRanges, i), count, is(Integer.valueOf(1)));
+			} else {
+				assertThat(String.format("%s - value %d did not appear",
+						keyRanges, i), count, nullValue());
+			}
+		}
+	}
+
+	private void checkFiltering(final List<FileSplit> splits)
+			throws IOException, InterruptedException {
+		final Map<Integer, Integer> kvCounts = read(splits,
+				KeyRanges.of(_from, _to));
 		final IntWritable iw = new IntWritable();
 		final Integer one = Integer.valueOf(1);
 		for (int i = 0; i < 1048576; i++) {
@@ -147,4 +517,28 @@ public class MapFileRecordReaderTest {
 			}
 		}
 	}
+
+	private Map<Integer, Integer> read(final List<FileSplit> splits,
+			final KeyRanges<IntWritable> ranges) throws IOException,
+			InterruptedException {
+		final Map<Integer, Integer> kvCounts = new HashMap<>();
+		for (final FileSplit split : splits) {
+			try (MapFileRecordReader<IntWritable, Text> mfrr = new MapFileRecordReader<IntWritable, Text>(
+					ranges, _raw)) {
+				mfrr.initialize(split, _context);
+				while (mfrr.nextKeyValue()) {
+					final int k = mfrr.getCurrentKey().get();
+					assertThat("The value belongs to the key", mfrr
+							.getCurrentValue().toString(), is("Value " + k));
+					final Integer count = kvCounts.get(k);
+					if (count == null) {
+						kvCounts.put(k, 1);
+					} else {
+						kvCounts.put(k, count + 1);
+					}
+				}
+			}
+		}
+		return kvCounts;
+	}
 }
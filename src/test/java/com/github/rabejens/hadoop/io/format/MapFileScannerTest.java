@@ -0,0 +1,74 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/**
+ * @author jens
+ *
+ */
+public class MapFileScannerTest {
+
+	@Test
+	public void mergesRangesInKeyOrder() throws IOException {
+		final Configuration conf = new Configuration();
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				/* Three MapFiles with interleaved keys, like a hash partitioning */
+				for (int f = 0; f < 3; f++) {
+					try (MapFile.Writer w = new MapFile.Writer(conf, new Path(
+							testDir, "part-r-0000" + f),
+							MapFile.Writer.keyClass(IntWritable.class),
+							MapFile.Writer.valueClass(Text.class))) {
+						for (int i = f; i < 10000; i += 3) {
+							w.append(new IntWritable(i), new Text("Value " + i));
+						}
+					}
+				}
+				final MapFileScanner<IntWritable, Text> scanner = new MapFileScanner<>(
+						conf, executor);
+				int expected = 100;
+				try (MapFileScanner.Scan<IntWritable, Text> scan = scanner.scan(
+						testDir, Arrays.asList(new KeyRange<>(new IntWritable(
+								100), new IntWritable(8000)), new KeyRange<>(
+								new IntWritable(9000), new IntWritable(9100))))) {
+					while (scan.next()) {
+						final int key = scan.getCurrentKey().get();
+						assertThat("The keys are merged in order", key,
+								is(expected));
+						assertThat("The value belongs to the key", scan
+								.getCurrentValue().toString(), is("Value "
+								+ key));
+						expected = (expected == 7999) ? 9000 : expected + 1;
+					}
+				}
+				assertThat("All keys in the ranges were read", expected,
+						is(9100));
+			} finally {
+				executor.shutdown();
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+}
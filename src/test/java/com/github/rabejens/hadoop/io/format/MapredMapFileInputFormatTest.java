@@ -0,0 +1,108 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+/**
+ * @author jens
+ *
+ */
+public class MapredMapFileInputFormatTest {
+
+	@Test
+	public void readsKeyRangeWithOldApi() throws IOException {
+		final Configuration conf = new Configuration();
+		try (FileSystem fs = FileSystem.get(conf)) {
+			Path testDir = null;
+			try {
+				do {
+					testDir = new Path(UUID.randomUUID().toString());
+				} while (fs.exists(testDir));
+				/* Four MapFiles with 100000 consecutive keys each */
+				for (int f = 0; f < 4; f++) {
+					try (MapFile.Writer w = new MapFile.Writer(conf, new Path(
+							testDir, "part-r-0000" + f),
+							MapFile.Writer.keyClass(IntWritable.class),
+							MapFile.Writer.valueClass(Text.class))) {
+						for (int i = f * 100000; i < (f + 1) * 100000; i++) {
+							w.append(new IntWritable(i), new Text("Value " + i));
+						}
+					}
+				}
+				final JobConf job = new JobConf(conf);
+				FileInputFormat.setInputPaths(job, testDir);
+				MapFileInputFormat.setMinKey(new IntWritable(150000), job);
+				MapFileInputFormat.setMaxKey(new IntWritable(160000), job);
+				MapFileInputFormat.setIndexSplitting(true, job);
+				final MapredMapFileInputFormat<IntWritable, Text> format = new MapredMapFileInputFormat<>();
+				final InputSplit[] splits = format.getSplits(job, 1);
+				/*
+				 * The index cannot tell the last keys of the other MapFiles,
+				 * so their edges may be split too, but not much more.
+				 */
+				long length = 0;
+				for (final InputSplit split : splits) {
+					length += split.getLength();
+				}
+				assertThat("Only about the key range is split",
+						length < fs.getFileStatus(
+								new Path(new Path(testDir, "part-r-00001"),
+										MapFile.DATA_FILE_NAME)).getLen() / 2,
+						is(true));
+				int count = 0;
+				for (final InputSplit split : splits) {
+					/* Splits are serialized on their way to the task. */
+					final Path splitFile = new Path(testDir, "split");
+					try (FSDataOutputStream out = fs.create(splitFile)) {
+						split.write(out);
+					}
+					final MapredMapFileSplit copy = new MapredMapFileSplit();
+					try (FSDataInputStream in = fs.open(splitFile)) {
+						copy.readFields(in);
+					}
+					assertThat("The split stays exact",
+							copy.toSplit() instanceof MapFileSplit, is(true));
+					final RecordReader<IntWritable, Text> reader = format
+							.getRecordReader(copy, job, Reporter.NULL);
+					try {
+						final IntWritable key = reader.createKey();
+						final Text value = reader.createValue();
+						while (reader.next(key, value)) {
+							assertThat("The key is in the range",
+									(key.get() >= 150000) && (key.get() < 160000),
+									is(true));
+							assertThat("The value belongs to the key",
+									value.toString(), is("Value " + key.get()));
+							count++;
+						}
+					} finally {
+						reader.close();
+					}
+				}
+				assertThat("All keys in the range were read", count, is(10000));
+			} finally {
+				if ((testDir != null) && fs.exists(testDir)) {
+					fs.delete(testDir, true);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package com.github.rabejens.hadoop.io.format;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.junit.Test;
+
+/**
+ * @author jens
+ *
+ */
+public class ReadAheadInputStreamTest {
+
+	private static final int LENGTH = 10000;
+
+	@Test(timeout = 10000)
+	public void seeksForwardWithinReadAhead() throws IOException {
+		final MemoryInputStream file = new MemoryInputStream(LENGTH);
+		try (ReadAheadInputStream in = open(file, 100, 3)) {
+			assertThat("The first byte is read", in.read(), is(data(0)));
+			in.seek(250);
+			checkRead(in, 250, 300);
+			assertThat("No chunk was read twice", file.readTwice(), is(false));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void seeksBackwardByRestarting() throws IOException {
+		final MemoryInputStream file = new MemoryInputStream(LENGTH);
+		try (ReadAheadInputStream in = open(file, 100, 3)) {
+			checkRead(in, 0, 550);
+			in.seek(10);
+			assertThat("The position is the one seeked to", in.getPos(),
+					is(10L));
+			checkRead(in, 10, 700);
+			assertThat("The first chunk was read again", file.readTwice(),
+					is(true));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void seeksToEnd() throws IOException {
+		final MemoryInputStream file = new MemoryInputStream(LENGTH);
+		try (ReadAheadInputStream in = open(file, 100, 3)) {
+			checkRead(in, 0, 10);
+			in.seek(LENGTH);
+			assertThat("The position is the end", in.getPos(),
+					is((long) LENGTH));
+			assertThat("No byte is left", in.read(), is(-1));
+			assertThat("No bytes are left", in.read(new byte[10], 0, 10),
+					is(-1));
+			try {
+				in.seek(LENGTH + 1);
+				fail("Seeked past the end");
+			} catch (final EOFException e) {
+				/* Expected */
+			}
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void reportsReadErrors() throws IOException {
+		final MemoryInputStream file = new MemoryInputStream(LENGTH);
+		file._failAt = 500;
+		try (ReadAheadInputStream in = open(file, 100, 3)) {
+			checkRead(in, 0, 500);
+			try {
+				in.read();
+				fail("The read error was not reported");
+			} catch (final IOException e) {
+				assertThat("The read error is reported", e.getMessage(),
+						is("Cannot read at 500"));
+			}
+			/* The next read tries again. */
+			file._failAt = Long.MAX_VALUE;
+			checkRead(in, 500, 600);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void closesWhileReadingAheadIsBlocked() throws IOException,
+			InterruptedException {
+		final MemoryInputStream file = new MemoryInputStream(LENGTH);
+		final ReadAheadInputStream in = open(file, 100, 2);
+		assertThat("The first byte is read", in.read(), is(data(0)));
+		/*
+		 * One chunk is current and two are read ahead, so the fetcher waits
+		 * for a free buffer.
+		 */
+		while (file.reads() < 3) {
+			Thread.sleep(1);
+		}
+		final long start = System.nanoTime();
+		in.close();
+		assertThat("Closing does not wait for the fetcher to time out",
+				System.nanoTime() - start < 50000000L, is(true));
+		assertThat("The file is closed", file._closed, is(true));
+	}
+
+	private static ReadAheadInputStream open(final MemoryInputStream file,
+			final int chunkSize, final int chunks) throws IOException {
+		return new ReadAheadInputStream(new FSDataInputStream(file), LENGTH,
+				chunkSize, chunks);
+	}
+
+	/* Read from the current position to the end, and check the bytes */
+	private static void checkRead(final ReadAheadInputStream in,
+			final int from, final int to) throws IOException {
+		final byte[] buffer = new byte[to - from];
+		int offset = 0;
+		while (offset < buffer.length) {
+			final int n = in.read(buffer, offset, buffer.length - offset);
+			assertThat("The bytes are there", n > 0, is(true));
+			offset += n;
+		}
+		for (int i = 0; i < buffer.length; i++) {
+			assertThat(String.format("Byte %d is read", from + i),
+					buffer[i] & 0xff, is(data(from + i)));
+		}
+		assertThat("The position is after the bytes read", in.getPos(),
+				is((long) to));
+	}
+
+	private static int data(final long position) {
+		return (int) (position % 251);
+	}
+
+	/* A file in memory, whose positional reads fail from a position on */
+	private static final class MemoryInputStream extends FSInputStream {
+
+		private final byte[] _data;
+		private final List<Long> _reads = new ArrayList<>();
+		private volatile long _failAt = Long.MAX_VALUE;
+		private volatile boolean _closed;
+		private int _pos;
+
+		MemoryInputStream(final int length) {
+			_data = new byte[length];
+			for (int i = 0; i < length; i++) {
+				_data[i] = (byte) data(i);
+			}
+		}
+
+		synchronized int reads() {
+			return _reads.size();
+		}
+
+		synchronized boolean readTwice() {
+			return new HashSet<>(_reads).size() < _reads.size();
+		}
+
+		@Override
+		public int read(final long position, final byte[] buffer,
+				final int offset, final int length) throws IOException {
+			if (position + length > _failAt) {
+				throw new IOException("Cannot read at " + position);
+			}
+			if (position >= _data.length) {
+				return -1;
+			}
+			synchronized (this) {
+				_reads.add(position);
+			}
+			final int n = (int) Math.min(length, _data.length - position);
+			System.arraycopy(_data, (int) position, buffer, offset, n);
+			return n;
+		}
+
+		@Override
+		public void readFully(final long position, final byte[] buffer,
+				final int offset, final int length) throws IOException {
+			if (read(position, buffer, offset, length) < length) {
+				throw new EOFException("Cannot read " + length + " bytes at "
+						+ position);
+			}
+		}
+
+		@Override
+		public int read() {
+			return (_pos < _data.length) ? _data[_pos++] & 0xff : -1;
+		}
+
+		@Override
+		public void seek(final long pos) {
+			_pos = (int) pos;
+		}
+
+		@Override
+		public long getPos() {
+			return _pos;
+		}
+
+		@Override
+		public boolean seekToNewSource(final long targetPos) {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			_closed = true;
+		}
+	}
+}